@@ -0,0 +1,81 @@
+package lox;
+
+/**
+ * The Lox programs the benchmarks run on.
+ * None of them print so the numbers are not just measuring System.out.
+ */
+final class BenchPrograms
+{
+    private BenchPrograms() {}
+
+    static String get(String name)
+    {
+        switch(name)
+        {
+            case "arithmetic" : return arithmetic();
+            case "strings"    : return strings();
+            case "nesting"    : return nesting();
+            case "flat"       : return flat();
+            default : throw new IllegalArgumentException("No program " + name);
+        }
+    }
+
+    // a counting loop doing nothing but number crunching
+    private static String arithmetic()
+    {
+        return "var sum = 0;\n" +
+               "for (var i = 0; i < 10000; i = i + 1) {\n" +
+               "  sum = sum + i * 2 - i / 4;\n" +
+               "  if (sum > 1000000) sum = sum - 1000000;\n" +
+               "}\n";
+    }
+
+    // building a string up one piece at a time
+    private static String strings()
+    {
+        return "var s = \"\";\n" +
+               "var i = 0;\n" +
+               "while (i < 500) {\n" +
+               "  s = s + \"ab\";\n" +
+               "  i = i + 1;\n" +
+               "}\n";
+    }
+
+    // blocks inside blocks, every level reads the one above it
+    private static String nesting()
+    {
+        int depth = 40;
+        StringBuilder builder = new StringBuilder();
+        builder.append("var total = 0;\n");
+        builder.append("for (var n = 0; n < 100; n = n + 1) {\n");
+        builder.append("var v0 = n;\n");
+        for(int i = 1; i < depth; i++)
+        {
+            builder.append("{ var v").append(i).append(" = v").append(i - 1).append(" + 1;\n");
+        }
+        builder.append("total = total + v").append(depth - 1).append(";\n");
+        for(int i = 1; i < depth; i++)
+        {
+            builder.append("}\n");
+        }
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    // what our generated scripts look like, lots of top level statements
+    private static String flat()
+    {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < 5000; i++)
+        {
+            builder.append("var g").append(i).append(" = ")
+                   .append(i).append(" * 2 + 1;\n");
+            if(i > 0)
+            {
+                builder.append("g").append(i).append(" = g").append(i)
+                       .append(" + g").append(i - 1).append(";\n");
+            }
+        }
+        return builder.toString();
+    }
+}
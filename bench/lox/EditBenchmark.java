@@ -0,0 +1,92 @@
+package lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What a keystroke costs in an editor: a char typed in the middle of a
+ * file through IncrementalParser and the statements or the Script of the
+ * file after it, next to lexing and parsing the whole file for it. Every
+ * edit moves all the statements below it, but neither their trees nor
+ * the list of them get copied, so the first two should stay about the
+ * same whatever the size of the file while the full parse grows with it.
+ * e.g. ant bench -Dbench.args="EditBenchmark"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditBenchmark
+{
+    @Param({"1000", "10000", "100000"})
+    public int statements;
+
+    private String m_source;
+    private IncrementalParser m_parser;
+    private int m_middle;
+    // if the last call typed its char, then this one takes it out again
+    private boolean m_typed = false;
+    private final ErrorReporter m_errors = new ErrorReporter(ErrorSink.printingTo(System.err));
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < statements; i++)
+        {
+            builder.append("var g").append(i).append(" = ").append(i).append(" * 2 + 1;\n");
+            if(i == statements / 2) m_middle = builder.length() - 3;
+        }
+        m_source = builder.toString();
+        m_parser = new IncrementalParser(m_source);
+
+        if(m_parser.hadError())
+        {
+            throw new IllegalStateException("Benchmark program does not parse");
+        }
+    }
+
+    @Benchmark
+    public List<Stmt> edit()
+    {
+        type();
+        return m_parser.statements();
+    }
+
+    @Benchmark
+    public Script script()
+    {
+        type();
+        return m_parser.script();
+    }
+
+    @Benchmark
+    public List<Stmt> parse()
+    {
+        return new Parser(new Lexer(m_source, m_errors).scanBuffer(), m_errors).parse();
+    }
+
+    private void type()
+    {
+        // 1 -> 21 on one call and back to 1 on the next, so the text does
+        // not keep growing, either way everything below the middle moves
+        if(m_typed) m_parser.edit(m_middle, 1, "");
+        else m_parser.edit(m_middle, 0, "2");
+        m_typed = !m_typed;
+    }
+}
@@ -0,0 +1,75 @@
+package lox;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times each phase on its own: scanning, parsing and interpreting.
+ * Every phase gets its input prepared in setup so it only measures itself.
+ * Run through `ant bench`, which also turns on the gc profiler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseBenchmark
+{
+    @Param({"arithmetic", "strings", "nesting", "flat"})
+    public String program;
+
+    private String m_source;
+    private TokenBuffer m_tokens;
+    private List<Stmt> m_statements;
+    private final ErrorReporter m_errors = new ErrorReporter(ErrorSink.printingTo(System.err));
+
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        m_source = BenchPrograms.get(program);
+        m_tokens = new Lexer(m_source, m_errors).scanBuffer();
+        m_statements = new Parser(m_tokens, m_errors).parse();
+        m_statements = new Optimizer().optimize(m_statements);
+        new Resolver().resolve(m_statements);
+
+        if(m_errors.m_hadError)
+        {
+            throw new IllegalStateException("Benchmark program " + program + " does not parse");
+        }
+    }
+
+    @Benchmark
+    public TokenBuffer lex()
+    {
+        return new Lexer(m_source, m_errors).scanBuffer();
+    }
+
+    @Benchmark
+    public List<Stmt> parse()
+    {
+        return new Parser(m_tokens, m_errors).parse();
+    }
+
+    @Benchmark
+    public Interpreter interpret()
+    {
+        // fresh globals every time so runs do not build on each other
+        Interpreter interpreter = new Interpreter(m_errors, new PrintSink(System.out));
+        interpreter.interpret(m_statements);
+        return interpreter;
+    }
+}
@@ -11,7 +11,7 @@ class ASTPrinter implements Expr.Visitor<String>
     @Override
     public String visitBinaryExpr(Expr.Binary expr)
     {
-        return parenthesize(expr.operator.m_lexeme, expr.left, expr.right);
+        return parenthesize(TokenBuffer.lexeme(expr.operator), expr.left, expr.right);
     }
 
     @Override 
@@ -30,7 +30,25 @@ class ASTPrinter implements Expr.Visitor<String>
     @Override
     public String visitUnaryExpr(Expr.Unary expr)
     {
-        return parenthesize(expr.operator.m_lexeme, expr.right);
+        return parenthesize(TokenBuffer.lexeme(expr.operator), expr.right);
+    }
+
+    @Override
+    public String visitAssignExpr(Expr.Assign expr)
+    {
+        return parenthesize("= " + expr.name, expr.value);
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr)
+    {
+        return parenthesize(TokenBuffer.lexeme(expr.operator), expr.left, expr.right);
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr)
+    {
+        return expr.name;
     }
 
     private String parenthesize(String name, Expr... exprs)
@@ -0,0 +1,129 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * On disk cache of resolved trees, so running the same script again
+ * skips the lexer, parser, optimizer and resolver.
+ * Entries are keyed by a SHA-256 of VERSION plus the source bytes, so
+ * changing either one just means a miss.
+ */
+class AstCache
+{
+    // bump this whenever the tree, the serialized format or any of the
+    // passes before the interpreter change what they produce
+    static final int VERSION = 5;
+
+    private final Path m_dir;
+
+    AstCache(Path l_dir)
+    {
+        this.m_dir = l_dir;
+    }
+
+    /**
+     * the directory comes from -Dlox.cache.dir, ~/.jlox/cache if not given
+     */
+    static AstCache fromSystemProperties()
+    {
+        String dir = System.getProperty("lox.cache.dir");
+        if(dir == null) dir = Paths.get(System.getProperty("user.home"), ".jlox", "cache").toString();
+        return new AstCache(Paths.get(dir));
+    }
+
+    /**
+     * hashes the file a block at a time so it is never all in memory
+     */
+    String key(Path source) throws IOException
+    {
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException error)
+        {
+            // every JVM has to ship SHA-256
+            throw new IllegalStateException(error);
+        }
+
+        digest.update((byte)VERSION);
+        digest.update((byte)(VERSION >>> 8));
+        byte[] block = new byte[8192];
+        try(InputStream in = Files.newInputStream(source))
+        {
+            int read;
+            while((read = in.read(block)) != -1)
+            {
+                digest.update(block, 0, read);
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for(byte b : digest.digest())
+        {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * @param errors gets the LineTable of the cached source on a hit
+     * @return the cached statements or null on a miss, a broken or
+     * outdated entry counts as a miss
+     */
+    List<Stmt> load(String key, ErrorReporter errors)
+    {
+        Path file = m_dir.resolve(key + ".ast");
+        if(Files.exists(file))
+        {
+            try(DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file))))
+            {
+                List<Stmt> statements = AstSerializer.read(in, VERSION, errors);
+                if(statements != null)
+                {
+                    LoxMetrics.m_cacheHits.increment();
+                    return statements;
+                }
+            }
+            catch(IOException | RuntimeException error)
+            {
+                // fall through, it gets written again after parsing
+            }
+        }
+
+        LoxMetrics.m_cacheMisses.increment();
+        return null;
+    }
+
+    void store(String key, List<Stmt> statements, LineTable lines)
+    {
+        try
+        {
+            Files.createDirectories(m_dir);
+            // write next to it and move it in, so another process
+            // never reads half an entry
+            Path temp = Files.createTempFile(m_dir, key, ".tmp");
+            Files.write(temp, AstSerializer.write(statements, lines, VERSION));
+            Files.move(temp, m_dir.resolve(key + ".ast"),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException error)
+        {
+            // a cache we cannot write to is just a cache that always misses
+            System.err.println("[cache] could not store " + key + ": " + error.getMessage());
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a resolved tree out as compact binary and reads it back.
+ * Every node is a tag byte followed by its fields, ints are varints and
+ * every string (names, string literals) is written once and referred
+ * to by index after that. Statements keep their line, the nodes that can
+ * fail their source offset and the LineTable goes first so those can be
+ * turned into lines again. The resolver's depth/slot results are kept,
+ * so a tree read back can run straight away.
+ */
+class AstSerializer
+{
+    private static final int MAGIC = 0x4c4f5841; // "LOXA"
+
+    // statement tags
+    private static final int BLOCK = 0;
+    private static final int EXPRESSION = 1;
+    private static final int IF = 2;
+    private static final int WHILE = 3;
+    private static final int PRINT = 4;
+    private static final int VAR = 5;
+
+    // expression tags
+    private static final int ASSIGN = 0;
+    private static final int BINARY = 1;
+    private static final int GROUPING = 2;
+    private static final int LITERAL = 3;
+    private static final int LOGICAL = 4;
+    private static final int UNARY = 5;
+    private static final int VARIABLE = 6;
+
+    // value tags
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int NUMBER = 3;
+    private static final int STRING = 4;
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    static byte[] write(List<Stmt> statements, LineTable lines, int version)
+    {
+        Writer writer = new Writer();
+        writer.int32(MAGIC);
+        writer.int32(version);
+        writer.lines(lines);
+        writer.statements(statements);
+        return writer.m_out.toByteArray();
+    }
+
+    /**
+     * @param errors gets the LineTable that was written with the tree
+     * @return the statements, or null if the data was written by another version
+     */
+    static List<Stmt> read(DataInputStream in, int version, ErrorReporter errors) throws IOException
+    {
+        if(in.readInt() != MAGIC) return null;
+        if(in.readInt() != version) return null;
+        Reader reader = new Reader(in);
+        LineTable lines = reader.lines();
+        List<Stmt> statements = reader.statements();
+        errors.m_lines = lines;
+        return statements;
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+    {
+        // writing to memory cannot fail, so none of this throws
+        private final ByteArrayOutputStream m_out = new ByteArrayOutputStream();
+        private final Map<String, Integer> m_strings = new HashMap<>();
+
+        void lines(LineTable lines)
+        {
+            // already varints, so just the bytes
+            varint(lines.m_size);
+            m_out.write(lines.m_lengths, 0, lines.m_size);
+        }
+
+        void statements(List<Stmt> statements)
+        {
+            varint(statements.size());
+            for(Stmt statement : statements)
+            {
+                statement.accept(this);
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt)
+        {
+            tag(BLOCK);
+            varint(stmt.line);
+            varint(stmt.slots);
+            varint(stmt.statements.size());
+            for(Stmt statement : stmt.statements)
+            {
+                statement.accept(this);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt)
+        {
+            tag(EXPRESSION);
+            varint(stmt.line);
+            stmt.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt)
+        {
+            tag(IF);
+            varint(stmt.line);
+            stmt.condition.accept(this);
+            stmt.thenBranch.accept(this);
+            bool(stmt.elseBranch != null);
+            if(stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt)
+        {
+            tag(WHILE);
+            varint(stmt.line);
+            stmt.condition.accept(this);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt)
+        {
+            tag(PRINT);
+            varint(stmt.line);
+            stmt.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt)
+        {
+            tag(VAR);
+            varint(stmt.line);
+            string(stmt.name);
+            varint(stmt.offset);
+            varint(stmt.slot + 1);
+            bool(stmt.initializer != null);
+            if(stmt.initializer != null) stmt.initializer.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr)
+        {
+            tag(ASSIGN);
+            string(expr.name);
+            varint(expr.offset);
+            expr.value.accept(this);
+            varint(expr.depth + 1);
+            varint(expr.slot);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr)
+        {
+            tag(BINARY);
+            expr.left.accept(this);
+            tag(expr.operator.ordinal());
+            varint(expr.offset);
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr)
+        {
+            tag(GROUPING);
+            expr.expression.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr)
+        {
+            tag(LITERAL);
+            value(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr)
+        {
+            tag(LOGICAL);
+            expr.left.accept(this);
+            tag(expr.operator.ordinal());
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr)
+        {
+            tag(UNARY);
+            tag(expr.operator.ordinal());
+            varint(expr.offset);
+            expr.right.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr)
+        {
+            tag(VARIABLE);
+            string(expr.name);
+            varint(expr.offset);
+            varint(expr.depth + 1);
+            varint(expr.slot);
+            return null;
+        }
+
+        private void value(Object value)
+        {
+            if(value == null) tag(NIL);
+            else if(value.equals(true)) tag(TRUE);
+            else if(value.equals(false)) tag(FALSE);
+            else if(value instanceof Double)
+            {
+                tag(NUMBER);
+                long bits = Double.doubleToRawLongBits((double)value);
+                int32((int)(bits >>> 32));
+                int32((int)bits);
+            }
+            else
+            {
+                tag(STRING);
+                string((String)value);
+            }
+        }
+
+        private void string(String value)
+        {
+            Integer index = m_strings.get(value);
+            if(index != null)
+            {
+                varint(index);
+                return;
+            }
+
+            // a new string is its new index followed by the UTF-8 bytes
+            varint(m_strings.size());
+            m_strings.put(value, m_strings.size());
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length);
+            m_out.write(bytes, 0, bytes.length);
+        }
+
+        private void bool(boolean value)
+        {
+            tag(value ? 1 : 0);
+        }
+
+        private void tag(int tag)
+        {
+            m_out.write(tag);
+        }
+
+        // big endian, same as DataInputStream.readInt expects
+        private void int32(int value)
+        {
+            m_out.write(value >>> 24);
+            m_out.write(value >>> 16);
+            m_out.write(value >>> 8);
+            m_out.write(value);
+        }
+
+        private void varint(int value)
+        {
+            while((value & ~0x7f) != 0)
+            {
+                m_out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            m_out.write(value);
+        }
+    }
+
+    private static class Reader
+    {
+        private final DataInputStream m_in;
+        private final List<String> m_strings = new ArrayList<>();
+
+        Reader(DataInputStream l_in)
+        {
+            this.m_in = l_in;
+        }
+
+        LineTable lines() throws IOException
+        {
+            byte[] lengths = new byte[varint()];
+            m_in.readFully(lengths);
+            return LineTable.ofLengths(lengths);
+        }
+
+        List<Stmt> statements() throws IOException
+        {
+            int count = varint();
+            List<Stmt> statements = new ArrayList<>(count);
+            for(int i = 0; i < count; i++)
+            {
+                statements.add(stmt());
+            }
+            return statements;
+        }
+
+        private Stmt stmt() throws IOException
+        {
+            int tag = m_in.readUnsignedByte();
+            int line = varint();
+            Stmt stmt = stmt(tag);
+            stmt.line = line;
+            return stmt;
+        }
+
+        private Stmt stmt(int tag) throws IOException
+        {
+            switch(tag)
+            {
+                case BLOCK :
+                {
+                    int slots = varint();
+                    Stmt.Block block = new Stmt.Block(statements());
+                    block.slots = slots;
+                    return block;
+                }
+                case EXPRESSION :
+                    return new Stmt.Expression(expr());
+                case IF :
+                {
+                    Expr condition = expr();
+                    Stmt thenBranch = stmt();
+                    Stmt elseBranch = m_in.readBoolean() ? stmt() : null;
+                    return new Stmt.If(condition, thenBranch, elseBranch);
+                }
+                case WHILE :
+                {
+                    Expr condition = expr();
+                    Stmt.While loop = new Stmt.While(condition, stmt());
+                    // the resolver would have found this, it is not stored
+                    loop.counted = CountedLoop.recognize(loop);
+                    return loop;
+                }
+                case PRINT :
+                    return new Stmt.Print(expr());
+                case VAR :
+                {
+                    String name = string();
+                    int offset = varint();
+                    int slot = varint() - 1;
+                    Expr initializer = m_in.readBoolean() ? expr() : null;
+                    Stmt.Var var = new Stmt.Var(name, offset, initializer);
+                    var.slot = slot;
+                    return var;
+                }
+                default :
+                    throw new IOException("Bad statement tag " + tag);
+            }
+        }
+
+        private Expr expr() throws IOException
+        {
+            int tag = m_in.readUnsignedByte();
+            switch(tag)
+            {
+                case ASSIGN :
+                {
+                    String name = string();
+                    int offset = varint();
+                    Expr.Assign assign = new Expr.Assign(name, offset, expr());
+                    assign.depth = varint() - 1;
+                    assign.slot = varint();
+                    return assign;
+                }
+                case BINARY :
+                {
+                    Expr left = expr();
+                    TokenType operator = operator();
+                    int offset = varint();
+                    return new Expr.Binary(left, operator, offset, expr());
+                }
+                case GROUPING :
+                    return new Expr.Grouping(expr());
+                case LITERAL :
+                    return new Expr.Literal(value());
+                case LOGICAL :
+                {
+                    Expr left = expr();
+                    TokenType operator = operator();
+                    return new Expr.Logical(left, operator, expr());
+                }
+                case UNARY :
+                {
+                    TokenType operator = operator();
+                    int offset = varint();
+                    return new Expr.Unary(operator, offset, expr());
+                }
+                case VARIABLE :
+                {
+                    String name = string();
+                    int offset = varint();
+                    Expr.Variable variable = new Expr.Variable(name, offset);
+                    variable.depth = varint() - 1;
+                    variable.slot = varint();
+                    return variable;
+                }
+                default :
+                    throw new IOException("Bad expression tag " + tag);
+            }
+        }
+
+        private TokenType operator() throws IOException
+        {
+            return TYPES[m_in.readUnsignedByte()];
+        }
+
+        private Object value() throws IOException
+        {
+            int tag = m_in.readUnsignedByte();
+            switch(tag)
+            {
+                case NIL    : return null;
+                case TRUE   : return true;
+                case FALSE  : return false;
+                case NUMBER : return m_in.readDouble();
+                case STRING : return string();
+                default     : throw new IOException("Bad value tag " + tag);
+            }
+        }
+
+        private String string() throws IOException
+        {
+            int index = varint();
+            if(index < m_strings.size()) return m_strings.get(index);
+
+            byte[] bytes = new byte[varint()];
+            m_in.readFully(bytes);
+            String value = new String(bytes, StandardCharsets.UTF_8);
+            m_strings.add(value);
+            return value;
+        }
+
+        private int varint() throws IOException
+        {
+            int value = 0;
+            for(int shift = 0; ; shift += 7)
+            {
+                int b = m_in.readUnsignedByte();
+                value |= (b & 0x7f) << shift;
+                if((b & 0x80) == 0) return value;
+            }
+        }
+    }
+}
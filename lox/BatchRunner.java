@@ -0,0 +1,246 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * --batch: runs a lot of small independent scripts at once. Each one
+ * gets a virtual thread, its own Interpreter through Script, and its
+ * own output and error buffers. When they are all done we print each
+ * script's output in the order they were listed, then a summary.
+ * Virtual threads are run on -Dlox.batch.carriers platform threads,
+ * the number of processors if not given.
+ */
+class BatchRunner
+{
+    // exit codes, same as jlox running one script
+    private static final int OK = 0;
+    private static final int SYNTAX_ERROR = 65;
+    private static final int RUNTIME_ERROR = 70;
+    private static final int IO_ERROR = 74;
+
+    /**
+     * what one script did
+     */
+    private static class Result
+    {
+        final Path m_path;
+        int m_exit;
+        long m_nanos;
+        String m_out = "";
+        String m_err = "";
+
+        Result(Path l_path)
+        {
+            this.m_path = l_path;
+        }
+    }
+
+    private final List<Path> m_scripts;
+
+    private BatchRunner(List<Path> l_scripts)
+    {
+        this.m_scripts = l_scripts;
+    }
+
+    /**
+     * @param source a directory, every .lox file under it is run, or a
+     * manifest with one script per line, relative to the manifest.
+     * Blank lines and lines starting with # are skipped.
+     */
+    static BatchRunner of(Path source) throws IOException
+    {
+        if(Files.isDirectory(source))
+        {
+            try(Stream<Path> files = Files.walk(source))
+            {
+                return new BatchRunner(files
+                    .filter(file -> file.toString().endsWith(".lox") && Files.isRegularFile(file))
+                    .sorted()
+                    .collect(Collectors.toList()));
+            }
+        }
+
+        Path dir = source.toAbsolutePath().getParent();
+        List<Path> scripts = new ArrayList<>();
+        for(String line : Files.readAllLines(source, Charset.defaultCharset()))
+        {
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) continue;
+            scripts.add(dir.resolve(line));
+        }
+        return new BatchRunner(scripts);
+    }
+
+    /**
+     * sets how many carrier threads virtual threads get, this has to
+     * happen before the first virtual thread is started
+     */
+    static void configureCarriers()
+    {
+        String carriers = System.getProperty("lox.batch.carriers",
+            Integer.toString(Runtime.getRuntime().availableProcessors()));
+        if(System.getProperty("jdk.virtualThreadScheduler.parallelism") == null)
+        {
+            System.setProperty("jdk.virtualThreadScheduler.parallelism", carriers);
+        }
+        // or the scheduler adds carriers while one is pinned
+        if(System.getProperty("jdk.virtualThreadScheduler.maxPoolSize") == null)
+        {
+            System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", carriers);
+        }
+    }
+
+    /**
+     * runs every script, prints what they printed and the summary
+     * @return the worst exit code any script had
+     */
+    int run(PrintStream out, PrintStream err)
+    {
+        long start = System.nanoTime();
+        List<Future<Result>> futures = new ArrayList<>(m_scripts.size());
+        try(ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor())
+        {
+            for(Path script : m_scripts)
+            {
+                futures.add(executor.submit(() -> runOne(script)));
+            }
+        }
+        long wall = System.nanoTime() - start;
+
+        List<Result> results = new ArrayList<>(futures.size());
+        for(Future<Result> future : futures)
+        {
+            results.add(done(future));
+        }
+
+        int worst = OK;
+        for(Result result : results)
+        {
+            out.printf(Locale.ROOT, "==> %s exit %d, %.3f ms <==%n",
+                result.m_path, result.m_exit, result.m_nanos / 1e6);
+            out.print(result.m_out);
+            if(!result.m_err.isEmpty())
+            {
+                err.println("==> " + result.m_path + " <==");
+                err.print(result.m_err);
+            }
+            worst = Math.max(worst, result.m_exit);
+        }
+        summary(results, wall, err);
+        return worst;
+    }
+
+    private static Result runOne(Path path)
+    {
+        Result result = new Result(path);
+        long start = System.nanoTime();
+        ByteArrayOutputStream outBytes = new ByteArrayOutputStream();
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        try(PrintStream out = new PrintStream(outBytes, false, Charset.defaultCharset());
+            PrintStream err = new PrintStream(errBytes, false, Charset.defaultCharset()))
+        {
+            ErrorSink errors = ErrorSink.printingTo(err);
+            try
+            {
+                String source = Files.readString(path, Charset.defaultCharset());
+                Script script = Script.compile(source, errors);
+                if(script == null) result.m_exit = SYNTAX_ERROR;
+                else if(!script.run(out, errors)) result.m_exit = RUNTIME_ERROR;
+            }
+            catch(IOException error)
+            {
+                err.println("could not read " + path + ": " + error.getMessage());
+                result.m_exit = IO_ERROR;
+            }
+            catch(StackOverflowError error)
+            {
+                // nesting too deep for the tree walker, that script is done
+                // but the rest of the batch carries on
+                err.println("stack overflow in " + path);
+                result.m_exit = RUNTIME_ERROR;
+            }
+            catch(OutOfMemoryError error)
+            {
+                // a script can build a string as big as it likes, what it
+                // held is garbage by now so the others still have the heap
+                err.println("out of memory in " + path);
+                result.m_exit = RUNTIME_ERROR;
+            }
+        }
+        result.m_nanos = System.nanoTime() - start;
+        result.m_out = outBytes.toString(Charset.defaultCharset());
+        result.m_err = errBytes.toString(Charset.defaultCharset());
+        return result;
+    }
+
+    private static Result done(Future<Result> future)
+    {
+        try
+        {
+            return future.get();
+        }
+        catch(ExecutionException error)
+        {
+            // a bug in the interpreter, not in the script
+            throw new IllegalStateException(error.getCause());
+        }
+        catch(InterruptedException error)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(error);
+        }
+    }
+
+    private static void summary(List<Result> results, long wall, PrintStream err)
+    {
+        int[] exits = new int[4];
+        long[] nanos = new long[results.size()];
+        for(int i = 0; i < results.size(); i++)
+        {
+            Result result = results.get(i);
+            nanos[i] = result.m_nanos;
+            switch(result.m_exit)
+            {
+                case OK            : exits[0]++; break;
+                case SYNTAX_ERROR  : exits[1]++; break;
+                case RUNTIME_ERROR : exits[2]++; break;
+                default            : exits[3]++; break;
+            }
+        }
+        Arrays.sort(nanos);
+
+        double seconds = wall / 1e9;
+        err.printf(Locale.ROOT, "[batch] %d scripts in %.3f s, %.1f scripts/s%n",
+            results.size(), seconds, seconds > 0 ? results.size() / seconds : 0.0);
+        err.printf(Locale.ROOT, "[batch] ok %d, syntax errors %d, runtime errors %d, unreadable %d%n",
+            exits[0], exits[1], exits[2], exits[3]);
+        err.printf(Locale.ROOT, "[batch] latency ms p50 %.3f p90 %.3f p99 %.3f max %.3f%n",
+            percentile(nanos, 50) / 1e6, percentile(nanos, 90) / 1e6,
+            percentile(nanos, 99) / 1e6, percentile(nanos, 100) / 1e6);
+    }
+
+    /**
+     * nearest rank on sorted
+     */
+    private static long percentile(long[] sorted, int percent)
+    {
+        if(sorted.length == 0) return 0;
+        int rank = (int)Math.ceil(percent / 100.0 * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
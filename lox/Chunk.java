@@ -0,0 +1,76 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled program for the VM: the code bytes, the constant pool
+ * and a run length encoded table of where in the source each
+ * instruction came from.
+ */
+class Chunk
+{
+    byte[] m_code = new byte[256];
+    int m_count = 0;
+    final List<Object> m_constants = new ArrayList<>();
+    private final Map<Object, Integer> m_constantIndex = new HashMap<>();
+
+    // pairs of (first code offset, source offset), a new pair only when
+    // the node changes so a whole node costs two ints instead of one per byte
+    private int[] m_sources = new int[16];
+    private int m_sourceCount = 0;
+
+    void write(byte b, int source)
+    {
+        if(m_count == m_code.length)
+        {
+            m_code = Arrays.copyOf(m_code, m_code.length * 2);
+        }
+
+        if(m_sourceCount == 0 || m_sources[m_sourceCount - 1] != source)
+        {
+            if(m_sourceCount + 2 > m_sources.length)
+            {
+                m_sources = Arrays.copyOf(m_sources, m_sources.length * 2);
+            }
+            m_sources[m_sourceCount++] = m_count;
+            m_sources[m_sourceCount++] = source;
+        }
+
+        m_code[m_count++] = b;
+    }
+
+    /**
+     * @return index of the constant in the pool, reusing an equal one
+     */
+    int addConstant(Object value)
+    {
+        Integer index = m_constantIndex.get(value);
+        if(index != null) return index;
+
+        m_constants.add(value);
+        m_constantIndex.put(value, m_constants.size() - 1);
+        return m_constants.size() - 1;
+    }
+
+    /**
+     * binary search over the source table
+     * @return the source offset of the instruction at offset
+     */
+    int sourceAt(int offset)
+    {
+        int low = 0;
+        int high = m_sourceCount / 2 - 1;
+        while(low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if(m_sources[mid * 2] <= offset) low = mid;
+            else high = mid - 1;
+        }
+
+        return m_sourceCount == 0 ? 0 : m_sources[low * 2 + 1];
+    }
+}
@@ -0,0 +1,388 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file writer for JvmCompiler: a constant pool,
+ * static fields and static methods with a Code attribute.
+ * We write version 49 class files, those are checked by the type
+ * inferring verifier, so we never have to work out stack map frames.
+ */
+class ClassEmitter
+{
+    private static final int VERSION = 49;
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL  = 0x0010;
+    static final int ACC_SUPER  = 0x0020;
+
+    // opcodes we use
+    static final int ACONST_NULL = 1;
+    static final int DCONST_0    = 14;
+    static final int BIPUSH      = 16;
+    static final int SIPUSH      = 17;
+    static final int LDC         = 18;
+    static final int LDC_W       = 19;
+    static final int LDC2_W      = 20;
+    static final int DLOAD       = 24;
+    static final int ALOAD       = 25;
+    static final int AALOAD      = 50;
+    static final int DSTORE      = 57;
+    static final int ASTORE      = 58;
+    static final int AASTORE     = 83;
+    static final int POP         = 87;
+    static final int POP2        = 88;
+    static final int DUP         = 89;
+    static final int DUP2        = 92;
+    static final int DADD        = 99;
+    static final int DSUB        = 103;
+    static final int DMUL        = 107;
+    static final int DDIV        = 111;
+    static final int DNEG        = 119;
+    static final int DCMPL       = 151;
+    static final int DCMPG       = 152;
+    static final int IFEQ        = 153;
+    static final int IFNE        = 154;
+    static final int IFLT        = 155;
+    static final int IFGE        = 156;
+    static final int IFGT        = 157;
+    static final int IFLE        = 158;
+    static final int GOTO        = 167;
+    static final int RETURN      = 177;
+    static final int GETSTATIC   = 178;
+    static final int PUTSTATIC   = 179;
+    static final int INVOKEVIRTUAL = 182;
+    static final int INVOKESTATIC = 184;
+    static final int ATHROW      = 191;
+    static final int CHECKCAST   = 192;
+    static final int WIDE        = 196;
+
+    private final String m_className;
+    private final ByteArrayOutputStream m_pool = new ByteArrayOutputStream();
+    private final DataOutputStream m_poolOut = new DataOutputStream(m_pool);
+    private final Map<String, Integer> m_poolIndex = new HashMap<>();
+    private int m_poolCount = 1; // entry 0 is never used
+
+    private final List<byte[]> m_fields = new ArrayList<>();
+    private final List<byte[]> m_methods = new ArrayList<>();
+
+    /**
+     * @param l_className internal name, e.g. lox/LoxScript
+     */
+    ClassEmitter(String l_className)
+    {
+        this.m_className = l_className;
+    }
+
+    String className()
+    {
+        return m_className;
+    }
+
+    int utf8(String value)
+    {
+        return entry("U" + value, 1, out -> out.writeUTF(value), 1);
+    }
+
+    int classRef(String internalName)
+    {
+        int name = utf8(internalName);
+        return entry("C" + internalName, 7, out -> out.writeShort(name), 1);
+    }
+
+    int string(String value)
+    {
+        int utf = utf8(value);
+        return entry("S" + value, 8, out -> out.writeShort(utf), 1);
+    }
+
+    int integer(int value)
+    {
+        return entry("I" + value, 3, out -> out.writeInt(value), 1);
+    }
+
+    int doubleConstant(double value)
+    {
+        // doubles take up two pool slots
+        long bits = Double.doubleToRawLongBits(value);
+        return entry("D" + bits, 6, out -> out.writeLong(bits), 2);
+    }
+
+    int fieldRef(String owner, String name, String descriptor)
+    {
+        return memberRef(9, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor)
+    {
+        return memberRef(10, owner, name, descriptor);
+    }
+
+    /**
+     * @return true if the constant pool still has room, the class file
+     * format caps it at 65535 entries
+     */
+    boolean poolHasRoom()
+    {
+        return m_poolCount < 0xfff0;
+    }
+
+    void addField(int access, String name, String descriptor)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0); // no attributes
+        });
+        m_fields.add(bytes.toByteArray());
+    }
+
+    void addMethod(int access, String name, String descriptor, Code code)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int codeName = utf8("Code");
+        write(() -> {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(1); // just the Code attribute
+            out.writeShort(codeName);
+            out.writeInt(12 + code.m_length + 8 * code.m_handlers.size());
+            out.writeShort(code.m_maxStack);
+            out.writeShort(code.m_maxLocals);
+            out.writeInt(code.m_length);
+            out.write(code.m_bytes, 0, code.m_length);
+            out.writeShort(code.m_handlers.size());
+            for(int[] handler : code.m_handlers)
+            {
+                out.writeShort(handler[0]);
+                out.writeShort(handler[1]);
+                out.writeShort(handler[2]);
+                out.writeShort(0); // catches anything
+            }
+            out.writeShort(0); // no attributes
+        });
+        m_methods.add(bytes.toByteArray());
+    }
+
+    byte[] toBytes()
+    {
+        int thisClass = classRef(m_className);
+        int superClass = classRef("java/lang/Object");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        write(() -> {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(m_poolCount);
+            m_pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // no interfaces
+            out.writeShort(m_fields.size());
+            for(byte[] field : m_fields) out.write(field);
+            out.writeShort(m_methods.size());
+            for(byte[] method : m_methods) out.write(method);
+            out.writeShort(0); // no class attributes
+        });
+        return bytes.toByteArray();
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor)
+    {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(descriptor);
+        int nameAndType = entry("N" + name + " " + descriptor, 12, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(typeIndex);
+        }, 1);
+        return entry(tag + owner + "." + name + " " + descriptor, tag, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        }, 1);
+    }
+
+    private interface PoolWriter
+    {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private interface Action
+    {
+        void run() throws IOException;
+    }
+
+    private int entry(String key, int tag, PoolWriter writer, int slots)
+    {
+        Integer index = m_poolIndex.get(key);
+        if(index != null) return index;
+
+        int entry = m_poolCount;
+        write(() -> {
+            m_poolOut.writeByte(tag);
+            writer.write(m_poolOut);
+        });
+        m_poolCount += slots;
+        m_poolIndex.put(key, entry);
+        return entry;
+    }
+
+    private static void write(Action action)
+    {
+        try
+        {
+            action.run();
+        }
+        catch(IOException error)
+        {
+            // we only ever write to byte arrays
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * A method body being built. Keeps track of how deep the operand
+     * stack gets so max_stack comes out right.
+     */
+    static class Code
+    {
+        byte[] m_bytes = new byte[256];
+        int m_length = 0;
+        int m_stack = 0;
+        int m_maxStack = 0;
+        int m_maxLocals = 0;
+        // start, end and handler offsets of each catch-everything handler
+        final List<int[]> m_handlers = new ArrayList<>();
+
+        void op(int opcode, int stackChange)
+        {
+            u1(opcode);
+            stack(stackChange);
+        }
+
+        void op1(int opcode, int operand, int stackChange)
+        {
+            u1(opcode);
+            u1(operand);
+            stack(stackChange);
+        }
+
+        void op2(int opcode, int operand, int stackChange)
+        {
+            u1(opcode);
+            u2(operand);
+            stack(stackChange);
+        }
+
+        /**
+         * loads and stores, uses the wide form for locals past 255
+         */
+        void local(int opcode, int index, int stackChange)
+        {
+            if(index > 255)
+            {
+                u1(WIDE);
+                op2(opcode, index, stackChange);
+            }
+            else
+            {
+                op1(opcode, index, stackChange);
+            }
+        }
+
+        void jump(int opcode, Label target, int stackChange)
+        {
+            int at = m_length;
+            u1(opcode);
+            stack(stackChange);
+            target.m_stack = m_stack;
+            if(target.m_offset >= 0)
+            {
+                u2(target.m_offset - at);
+            }
+            else
+            {
+                // patched once we know where the label is
+                target.m_uses.add(at);
+                u2(0);
+            }
+        }
+
+        void mark(Label label)
+        {
+            label.m_offset = m_length;
+            for(int at : label.m_uses)
+            {
+                int offset = m_length - at;
+                m_bytes[at + 1] = (byte)(offset >> 8);
+                m_bytes[at + 2] = (byte)offset;
+            }
+            label.m_uses.clear();
+            // whatever jumped here decides how deep the stack is
+            if(label.m_stack >= 0) m_stack = label.m_stack;
+        }
+
+        /**
+         * anything thrown between start and end goes to the handler,
+         * which starts with just the exception on the stack
+         */
+        void handler(Label start, Label end, Label handler)
+        {
+            m_handlers.add(new int[] { start.m_offset, end.m_offset, m_length });
+            mark(handler);
+            m_stack = 0;
+            stack(1);
+        }
+
+        /**
+         * pushes a small non negative int
+         */
+        void integer(int value)
+        {
+            if(value <= Byte.MAX_VALUE) op1(BIPUSH, value, 1);
+            else op2(SIPUSH, value, 1);
+        }
+
+        void stack(int change)
+        {
+            m_stack += change;
+            if(m_stack > m_maxStack) m_maxStack = m_stack;
+        }
+
+        private void u1(int value)
+        {
+            if(m_length == m_bytes.length) m_bytes = Arrays.copyOf(m_bytes, m_length * 2);
+            m_bytes[m_length++] = (byte)value;
+        }
+
+        void u2(int value)
+        {
+            u1(value >> 8);
+            u1(value);
+        }
+    }
+
+    static class Label
+    {
+        int m_offset = -1;
+        int m_stack = -1;
+        final List<Integer> m_uses = new ArrayList<>();
+    }
+}
@@ -0,0 +1,1030 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns the resolved tree into a tree of small final node objects for
+ * ClosureRuntime, once, before anything runs. Everything the Interpreter
+ * works out on every visit is settled here instead: which operator, if a
+ * variable is a local or a global, where a local lives and if the right
+ * operand is a number we already know. Running is then a plain call
+ * into the node, no accept and no switch on the operator, and each node
+ * class only ever calls into its own children, which the JIT inlines a
+ * lot better than one big visitor.
+ *
+ * Locals live in one Object[] for the whole run, the same layout the
+ * Compiler gives the VM stack: every block with slots takes the next
+ * few after the block it is in, so (depth, slot) is a fixed index.
+ */
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.Evaluator>, Stmt.Visitor<ClosureCompiler.Executor>
+{
+    /**
+     * an expression ready to run
+     */
+    abstract static class Evaluator
+    {
+        abstract Object eval(Object[] locals);
+
+        /**
+         * the truthiness of eval, comparisons and not override it so
+         * conditions never box a Boolean
+         */
+        boolean test(Object[] locals)
+        {
+            return Interpreter.isTruthy(eval(locals));
+        }
+    }
+
+    /**
+     * a statement ready to run
+     */
+    abstract static class Executor
+    {
+        abstract void run(Object[] locals);
+    }
+
+    private final Environment m_globals;
+    private final PrintSink m_out;
+    // index in the locals array where each enclosing block's slots start
+    private final List<Integer> m_frameBases = new ArrayList<>();
+    private int m_localCount = 0;
+    // how big the locals array has to be
+    int m_maxLocals = 0;
+
+    ClosureCompiler(Environment l_globals, PrintSink l_out)
+    {
+        this.m_globals = l_globals;
+        this.m_out = l_out;
+    }
+
+    Executor[] compile(List<Stmt> statements)
+    {
+        Executor[] code = new Executor[statements.size()];
+        for(int i = 0; i < code.length; i++)
+        {
+            code[i] = compile(statements.get(i));
+        }
+        return code;
+    }
+
+    private Executor compile(Stmt stmt)
+    {
+        return stmt.accept(this);
+    }
+
+    private Evaluator compile(Expr expr)
+    {
+        return expr.accept(this);
+    }
+
+    private int local(int depth, int slot)
+    {
+        return m_frameBases.get(m_frameBases.size() - 1 - depth) + slot;
+    }
+
+    @Override
+    public Executor visitBlockStmt(Stmt.Block stmt)
+    {
+        // no slots means the resolver gave this block no scope either
+        if(stmt.slots == 0) return new Sequence(compile(stmt.statements));
+
+        int base = m_localCount;
+        m_frameBases.add(base);
+        m_localCount += stmt.slots;
+        m_maxLocals = Math.max(m_maxLocals, m_localCount);
+
+        Executor[] body = compile(stmt.statements);
+
+        m_localCount -= stmt.slots;
+        m_frameBases.remove(m_frameBases.size() - 1);
+        return new Block(body, base, stmt.slots);
+    }
+
+    @Override
+    public Executor visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return new Discard(compile(stmt.expression));
+    }
+
+    @Override
+    public Executor visitIfStmt(Stmt.If stmt)
+    {
+        return new If(compile(stmt.condition), compile(stmt.thenBranch),
+            stmt.elseBranch == null ? null : compile(stmt.elseBranch));
+    }
+
+    @Override
+    public Executor visitWhileStmt(Stmt.While stmt)
+    {
+        return new While(compile(stmt.condition), compile(stmt.body));
+    }
+
+    @Override
+    public Executor visitPrintStmt(Stmt.Print stmt)
+    {
+        return new Print(compile(stmt.expression), m_out);
+    }
+
+    @Override
+    public Executor visitVarStmt(Stmt.Var stmt)
+    {
+        Evaluator initializer = stmt.initializer == null ? new Constant(null) : compile(stmt.initializer);
+        if(stmt.slot == -1) return new DefineGlobal(m_globals, stmt.name, initializer);
+        return new SetLocal(local(0, stmt.slot), initializer);
+    }
+
+    @Override
+    public Evaluator visitAssignExpr(Expr.Assign expr)
+    {
+        Evaluator value = compile(expr.value);
+        if(expr.depth == -1) return new AssignGlobal(m_globals, expr.name, expr.offset, value);
+        return new AssignLocal(local(expr.depth, expr.slot), value);
+    }
+
+    @Override
+    public Evaluator visitVariableExpr(Expr.Variable expr)
+    {
+        if(expr.depth == -1) return new GetGlobal(m_globals, expr.name, expr.offset);
+        return new GetLocal(local(expr.depth, expr.slot));
+    }
+
+    @Override
+    public Evaluator visitLiteralExpr(Expr.Literal expr)
+    {
+        return new Constant(expr.value);
+    }
+
+    @Override
+    public Evaluator visitGroupingExpr(Expr.Grouping expr)
+    {
+        // nothing left to do for the parens once the tree has its shape
+        return compile(expr.expression);
+    }
+
+    @Override
+    public Evaluator visitLogicalExpr(Expr.Logical expr)
+    {
+        Evaluator left = compile(expr.left);
+        Evaluator right = compile(expr.right);
+        if(expr.operator == TokenType.OR) return new Or(left, right);
+        return new And(left, right);
+    }
+
+    @Override
+    public Evaluator visitUnaryExpr(Expr.Unary expr)
+    {
+        Evaluator right = compile(expr.right);
+        if(expr.operator == TokenType.BANG) return new Not(right);
+        return new Negate(expr.offset, right);
+    }
+
+    @Override
+    public Evaluator visitBinaryExpr(Expr.Binary expr)
+    {
+        TokenType operator = expr.operator;
+        int offset = expr.offset;
+        Evaluator left = compile(expr.left);
+
+        // a number on the right is the usual i < 100 and i + 1, the node
+        // keeps it as a double and never looks at it again
+        if(expr.right instanceof Expr.Literal && ((Expr.Literal)expr.right).value instanceof Double)
+        {
+            double constant = (Double)((Expr.Literal)expr.right).value;
+            switch(operator)
+            {
+                case TokenType.PLUS          : return new AddConstant(offset, left, constant);
+                case TokenType.MINUS         : return new SubtractConstant(offset, left, constant);
+                case TokenType.LESS          : return new LessConstant(offset, left, constant);
+                case TokenType.LESS_EQUAL    : return new LessEqualConstant(offset, left, constant);
+                case TokenType.GREATER       : return new GreaterConstant(offset, left, constant);
+                case TokenType.GREATER_EQUAL : return new GreaterEqualConstant(offset, left, constant);
+                default:
+            }
+        }
+
+        Evaluator right = compile(expr.right);
+        switch(operator)
+        {
+            case TokenType.PLUS          : return new Add(offset, left, right);
+            case TokenType.MINUS         : return new Subtract(offset, left, right);
+            case TokenType.STAR          : return new Multiply(offset, left, right);
+            case TokenType.SLASH         : return new Divide(offset, left, right);
+            case TokenType.LESS          : return new Less(offset, left, right);
+            case TokenType.LESS_EQUAL    : return new LessEqual(offset, left, right);
+            case TokenType.GREATER       : return new Greater(offset, left, right);
+            case TokenType.GREATER_EQUAL : return new GreaterEqual(offset, left, right);
+            case TokenType.EQUAL_EQUAL   : return new Equal(left, right);
+            case TokenType.BANG_EQUAL    : return new NotEqual(left, right);
+            default :
+                throw new IllegalStateException("No binary operator " + operator);
+        }
+    }
+
+    // statements
+
+    private static final class Sequence extends Executor
+    {
+        private final Executor[] m_body;
+
+        Sequence(Executor[] l_body)
+        {
+            this.m_body = l_body;
+        }
+
+        @Override
+        void run(Object[] locals)
+        {
+            for(Executor statement : m_body) statement.run(locals);
+        }
+    }
+
+    private static final class Block extends Executor
+    {
+        private final Executor[] m_body;
+        private final int m_base;
+        private final int m_slots;
+
+        Block(Executor[] l_body, int l_base, int l_slots)
+        {
+            this.m_body = l_body;
+            this.m_base = l_base;
+            this.m_slots = l_slots;
+        }
+
+        @Override
+        void run(Object[] locals)
+        {
+            for(Executor statement : m_body) statement.run(locals);
+            // so the values are not kept alive, nothing reads a slot
+            // before its var has run
+            Arrays.fill(locals, m_base, m_base + m_slots, null);
+        }
+    }
+
+    private static final class Discard extends Executor
+    {
+        private final Evaluator m_expression;
+
+        Discard(Evaluator l_expression)
+        {
+            this.m_expression = l_expression;
+        }
+
+        @Override
+        void run(Object[] locals)
+        {
+            m_expression.eval(locals);
+        }
+    }
+
+    private static final class If extends Executor
+    {
+        private final Evaluator m_condition;
+        private final Executor m_then;
+        private final Executor m_else;
+
+        If(Evaluator l_condition, Executor l_then, Executor l_else)
+        {
+            this.m_condition = l_condition;
+            this.m_then = l_then;
+            this.m_else = l_else;
+        }
+
+        @Override
+        void run(Object[] locals)
+        {
+            if(m_condition.test(locals)) m_then.run(locals);
+            else if(m_else != null) m_else.run(locals);
+        }
+    }
+
+    private static final class While extends Executor
+    {
+        private final Evaluator m_condition;
+        private final Executor m_body;
+
+        While(Evaluator l_condition, Executor l_body)
+        {
+            this.m_condition = l_condition;
+            this.m_body = l_body;
+        }
+
+        @Override
+        void run(Object[] locals)
+        {
+            while(m_condition.test(locals)) m_body.run(locals);
+        }
+    }
+
+    private static final class Print extends Executor
+    {
+        private final Evaluator m_expression;
+        private final PrintSink m_out;
+
+        Print(Evaluator l_expression, PrintSink l_out)
+        {
+            this.m_expression = l_expression;
+            this.m_out = l_out;
+        }
+
+        @Override
+        void run(Object[] locals)
+        {
+            m_out.println(m_expression.eval(locals));
+        }
+    }
+
+    private static final class DefineGlobal extends Executor
+    {
+        private final Environment m_globals;
+        private final String m_name;
+        private final Evaluator m_initializer;
+        // a global's cell never changes once it is defined
+        private Environment.Cell m_cell;
+
+        DefineGlobal(Environment l_globals, String l_name, Evaluator l_initializer)
+        {
+            this.m_globals = l_globals;
+            this.m_name = l_name;
+            this.m_initializer = l_initializer;
+        }
+
+        @Override
+        void run(Object[] locals)
+        {
+            Object value = m_initializer.eval(locals);
+            if(m_cell != null)
+            {
+                m_cell.m_value = value;
+                return;
+            }
+            m_globals.define(m_name, value);
+            m_cell = m_globals.cell(m_name);
+        }
+    }
+
+    private static final class SetLocal extends Executor
+    {
+        private final int m_index;
+        private final Evaluator m_initializer;
+
+        SetLocal(int l_index, Evaluator l_initializer)
+        {
+            this.m_index = l_index;
+            this.m_initializer = l_initializer;
+        }
+
+        @Override
+        void run(Object[] locals)
+        {
+            locals[m_index] = m_initializer.eval(locals);
+        }
+    }
+
+    // variables
+
+    private static final class GetGlobal extends Evaluator
+    {
+        private final Environment m_globals;
+        private final String m_name;
+        private final int m_offset;
+        private Environment.Cell m_cell;
+
+        GetGlobal(Environment l_globals, String l_name, int l_offset)
+        {
+            this.m_globals = l_globals;
+            this.m_name = l_name;
+            this.m_offset = l_offset;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Environment.Cell cell = m_cell;
+            if(cell == null)
+            {
+                cell = m_globals.cell(m_name);
+                // never defined, get has the error for that
+                if(cell == null) return m_globals.get(m_name, m_offset);
+                m_cell = cell;
+            }
+            return cell.m_value;
+        }
+    }
+
+    private static final class AssignGlobal extends Evaluator
+    {
+        private final Environment m_globals;
+        private final String m_name;
+        private final int m_offset;
+        private final Evaluator m_value;
+        private Environment.Cell m_cell;
+
+        AssignGlobal(Environment l_globals, String l_name, int l_offset, Evaluator l_value)
+        {
+            this.m_globals = l_globals;
+            this.m_name = l_name;
+            this.m_offset = l_offset;
+            this.m_value = l_value;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object value = m_value.eval(locals);
+            Environment.Cell cell = m_cell;
+            if(cell == null)
+            {
+                cell = m_globals.cell(m_name);
+                if(cell == null)
+                {
+                    m_globals.assign(m_name, m_offset, value);
+                    return value;
+                }
+                m_cell = cell;
+            }
+            cell.m_value = value;
+            return value;
+        }
+    }
+
+    private static final class GetLocal extends Evaluator
+    {
+        private final int m_index;
+
+        GetLocal(int l_index)
+        {
+            this.m_index = l_index;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return locals[m_index];
+        }
+    }
+
+    private static final class AssignLocal extends Evaluator
+    {
+        private final int m_index;
+        private final Evaluator m_value;
+
+        AssignLocal(int l_index, Evaluator l_value)
+        {
+            this.m_index = l_index;
+            this.m_value = l_value;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object value = m_value.eval(locals);
+            locals[m_index] = value;
+            return value;
+        }
+    }
+
+    private static final class Constant extends Evaluator
+    {
+        private final Object m_value;
+        private final boolean m_truthy;
+
+        Constant(Object l_value)
+        {
+            this.m_value = l_value;
+            this.m_truthy = Interpreter.isTruthy(l_value);
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return m_value;
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            return m_truthy;
+        }
+    }
+
+    // logic
+
+    private static final class Or extends Evaluator
+    {
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        Or(Evaluator l_left, Evaluator l_right)
+        {
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            if(Interpreter.isTruthy(left)) return left;
+            return m_right.eval(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            return m_left.test(locals) || m_right.test(locals);
+        }
+    }
+
+    private static final class And extends Evaluator
+    {
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        And(Evaluator l_left, Evaluator l_right)
+        {
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            if(!Interpreter.isTruthy(left)) return left;
+            return m_right.eval(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            return m_left.test(locals) && m_right.test(locals);
+        }
+    }
+
+    private static final class Not extends Evaluator
+    {
+        private final Evaluator m_right;
+
+        Not(Evaluator l_right)
+        {
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return !m_right.test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            return !m_right.test(locals);
+        }
+    }
+
+    private static final class Negate extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_right;
+
+        Negate(int l_offset, Evaluator l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object right = m_right.eval(locals);
+            Interpreter.chekcNumberOperand(m_offset, right);
+            return -(double)right;
+        }
+    }
+
+    // arithmetic, both sides are evaluated before anything is checked and
+    // anything that is not two numbers goes the Interpreter's way, which
+    // is where the string + and all the type errors are
+
+    private static final class Add extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        Add(int l_offset, Evaluator l_left, Evaluator l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            Object right = m_right.eval(locals);
+            if(left instanceof Double && right instanceof Double) return (double)left + (double)right;
+            return Interpreter.binaryOnValues(TokenType.PLUS, m_offset, left, right);
+        }
+    }
+
+    private static final class Subtract extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        Subtract(int l_offset, Evaluator l_left, Evaluator l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            Object right = m_right.eval(locals);
+            if(left instanceof Double && right instanceof Double) return (double)left - (double)right;
+            return Interpreter.binaryOnValues(TokenType.MINUS, m_offset, left, right);
+        }
+    }
+
+    private static final class Multiply extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        Multiply(int l_offset, Evaluator l_left, Evaluator l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            Object right = m_right.eval(locals);
+            if(left instanceof Double && right instanceof Double) return (double)left * (double)right;
+            return Interpreter.binaryOnValues(TokenType.STAR, m_offset, left, right);
+        }
+    }
+
+    private static final class Divide extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        Divide(int l_offset, Evaluator l_left, Evaluator l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            Object right = m_right.eval(locals);
+            if(left instanceof Double && right instanceof Double && (double)right != 0)
+            {
+                return (double)left / (double)right;
+            }
+            // dividing by zero throws in there too
+            return Interpreter.binaryOnValues(TokenType.SLASH, m_offset, left, right);
+        }
+    }
+
+    private static final class AddConstant extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final double m_right;
+
+        AddConstant(int l_offset, Evaluator l_left, double l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            if(left instanceof Double) return (double)left + m_right;
+            return Interpreter.binaryOnValues(TokenType.PLUS, m_offset, left, m_right);
+        }
+    }
+
+    private static final class SubtractConstant extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final double m_right;
+
+        SubtractConstant(int l_offset, Evaluator l_left, double l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            if(left instanceof Double) return (double)left - m_right;
+            return Interpreter.binaryOnValues(TokenType.MINUS, m_offset, left, m_right);
+        }
+    }
+
+    // comparisons, test is the real one and eval boxes what it says
+
+    private static final class Less extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        Less(int l_offset, Evaluator l_left, Evaluator l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            Object right = m_right.eval(locals);
+            if(left instanceof Double && right instanceof Double) return (double)left < (double)right;
+            return (boolean)Interpreter.binaryOnValues(TokenType.LESS, m_offset, left, right);
+        }
+    }
+
+    private static final class LessEqual extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        LessEqual(int l_offset, Evaluator l_left, Evaluator l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            Object right = m_right.eval(locals);
+            if(left instanceof Double && right instanceof Double) return (double)left <= (double)right;
+            return (boolean)Interpreter.binaryOnValues(TokenType.LESS_EQUAL, m_offset, left, right);
+        }
+    }
+
+    private static final class Greater extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        Greater(int l_offset, Evaluator l_left, Evaluator l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            Object right = m_right.eval(locals);
+            if(left instanceof Double && right instanceof Double) return (double)left > (double)right;
+            return (boolean)Interpreter.binaryOnValues(TokenType.GREATER, m_offset, left, right);
+        }
+    }
+
+    private static final class GreaterEqual extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        GreaterEqual(int l_offset, Evaluator l_left, Evaluator l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            Object right = m_right.eval(locals);
+            if(left instanceof Double && right instanceof Double) return (double)left >= (double)right;
+            return (boolean)Interpreter.binaryOnValues(TokenType.GREATER_EQUAL, m_offset, left, right);
+        }
+    }
+
+    private static final class LessConstant extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final double m_right;
+
+        LessConstant(int l_offset, Evaluator l_left, double l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            if(left instanceof Double) return (double)left < m_right;
+            return (boolean)Interpreter.binaryOnValues(TokenType.LESS, m_offset, left, m_right);
+        }
+    }
+
+    private static final class LessEqualConstant extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final double m_right;
+
+        LessEqualConstant(int l_offset, Evaluator l_left, double l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            if(left instanceof Double) return (double)left <= m_right;
+            return (boolean)Interpreter.binaryOnValues(TokenType.LESS_EQUAL, m_offset, left, m_right);
+        }
+    }
+
+    private static final class GreaterConstant extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final double m_right;
+
+        GreaterConstant(int l_offset, Evaluator l_left, double l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            if(left instanceof Double) return (double)left > m_right;
+            return (boolean)Interpreter.binaryOnValues(TokenType.GREATER, m_offset, left, m_right);
+        }
+    }
+
+    private static final class GreaterEqualConstant extends Evaluator
+    {
+        private final int m_offset;
+        private final Evaluator m_left;
+        private final double m_right;
+
+        GreaterEqualConstant(int l_offset, Evaluator l_left, double l_right)
+        {
+            this.m_offset = l_offset;
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            Object left = m_left.eval(locals);
+            if(left instanceof Double) return (double)left >= m_right;
+            return (boolean)Interpreter.binaryOnValues(TokenType.GREATER_EQUAL, m_offset, left, m_right);
+        }
+    }
+
+    private static final class Equal extends Evaluator
+    {
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        Equal(Evaluator l_left, Evaluator l_right)
+        {
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            return Interpreter.isEqual(m_left.eval(locals), m_right.eval(locals));
+        }
+    }
+
+    private static final class NotEqual extends Evaluator
+    {
+        private final Evaluator m_left;
+        private final Evaluator m_right;
+
+        NotEqual(Evaluator l_left, Evaluator l_right)
+        {
+            this.m_left = l_left;
+            this.m_right = l_right;
+        }
+
+        @Override
+        Object eval(Object[] locals)
+        {
+            return test(locals);
+        }
+
+        @Override
+        boolean test(Object[] locals)
+        {
+            return !Interpreter.isEqual(m_left.eval(locals), m_right.eval(locals));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package lox;
+
+import java.util.List;
+
+/**
+ * Runs scripts on the node trees ClosureCompiler builds, the --closures
+ * backend. It prints and fails exactly like the Interpreter, the nodes
+ * call into it for everything that is not the fast path.
+ * Hot loops are not handed to the JVM compiler like the Interpreter does,
+ * the point of the nodes is to be what the JIT compiles.
+ */
+class ClosureRuntime
+{
+    // globals outlive a single tree so the REPL keeps its variables
+    private final Environment m_globals = new Environment();
+    private final ErrorReporter m_errors;
+    private final PrintSink m_out;
+
+    ClosureRuntime(ErrorReporter l_errors, PrintSink l_out)
+    {
+        this.m_errors = l_errors;
+        this.m_out = l_out;
+    }
+
+    void interpret(List<Stmt> statements)
+    {
+        ClosureCompiler compiler = new ClosureCompiler(m_globals, m_out);
+        ClosureCompiler.Executor[] code = compiler.compile(statements);
+        Object[] locals = new Object[compiler.m_maxLocals];
+        try
+        {
+            for(ClosureCompiler.Executor statement : code)
+            {
+                statement.run(locals);
+            }
+        }
+        catch(RuntimeError error)
+        {
+            m_out.flush();
+            m_errors.runtimeError(error);
+        }
+        finally
+        {
+            m_out.flush();
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The part of the Optimizer that moves work out of the way, both by
+ * keeping a value in a made up local instead of working it out again:
+ *
+ * hoist: an expression in a while loop that only reads variables the
+ * loop never assigns or declares has the same value every time round, so
+ * it gets a local declared right before the loop. If the first test of
+ * the condition always works it out, and nothing that test does before it
+ * could throw, the local is set to it before the loop starts and every
+ * place it was just reads the local. Anywhere else it becomes t or
+ * (t = expr): the first one to run works it out, every one after that
+ * just reads t. Either way an expression that throws throws on the same
+ * line at the same point as before, and not at all if the loop never gets
+ * that far. Only arithmetic is hoisted, its value is a number or a
+ * string, never nil or false, so the or always knows if t is set.
+ *
+ * commonSubexpressions: the same arithmetic twice in one statement, a * b
+ * + a * b, becomes (t = a * b) + t with t declared right before the
+ * statement. Only inside a block that has locals already, at the top
+ * level t would be a global and any other block would need a scope.
+ *
+ * The made up names start with $, which is not a character the lexer
+ * knows, so they can never meet a name from a script.
+ */
+class CodeMotion
+{
+    // a hoisted expression has to do at least this much to be worth a local
+    private static final int MIN_HOISTED_OPERATORS = 2;
+
+    private int m_temps = 0;
+
+    /**
+     * @param defined names that are sure to be defined where the loop is,
+     * reading one of them cannot throw
+     * @return the declarations of the locals for what was hoisted, then
+     * the loop reading them. Running the declarations again resets the
+     * locals, so they go right before the loop in the same block
+     */
+    List<Stmt> hoist(Stmt.While loop, Set<String> defined)
+    {
+        VariableUses uses = new VariableUses();
+        loop.accept(uses);
+        Set<String> changing = new HashSet<>(uses.m_assigned);
+        changing.addAll(uses.m_declared);
+
+        Hoister hoister = new Hoister(changing, defined, loop.line);
+        Expr condition = hoister.copy(loop.condition);
+        hoister.m_first = false;
+        Stmt body = hoister.copy(loop.body);
+
+        List<Stmt> statements = hoister.m_statements;
+        if(statements.isEmpty())
+        {
+            statements.add(loop);
+            return statements;
+        }
+        statements.add(at(new Stmt.While(condition, body), loop.line));
+        return statements;
+    }
+
+    /**
+     * @return stmt with what it works out twice worked out once, after
+     * the declarations of the locals that takes
+     */
+    List<Stmt> commonSubexpressions(Stmt stmt)
+    {
+        List<Stmt> statements = new ArrayList<>();
+        if(!(stmt instanceof Stmt.Expression || stmt instanceof Stmt.Print || stmt instanceof Stmt.Var))
+        {
+            statements.add(stmt);
+            return statements;
+        }
+
+        VariableUses uses = new VariableUses();
+        stmt.accept(uses);
+        Set<String> assigned = uses.m_assigned;
+
+        // how often each candidate comes up
+        Map<String, Integer> counts = new HashMap<>();
+        new Copier()
+        {
+            @Override
+            Expr replace(Expr expr)
+            {
+                if(isCandidate(expr, assigned)) counts.merge(key(expr), 1, Integer::sum);
+                return null;
+            }
+        }.copy(stmt);
+
+        int line = stmt.line;
+        Map<String, String> temps = new HashMap<>();
+        // keys whose first time may not run, a later one could not read it
+        Set<String> skipped = new HashSet<>();
+        Stmt copy = new Copier()
+        {
+            @Override
+            Expr replace(Expr expr)
+            {
+                if(!isCandidate(expr, assigned)) return null;
+                String key = key(expr);
+                if(counts.get(key) < 2 || skipped.contains(key)) return null;
+
+                String temp = temps.get(key);
+                if(temp != null) return new Expr.Variable(temp, offset(expr));
+                if(m_conditional > 0)
+                {
+                    skipped.add(key);
+                    return null;
+                }
+
+                temp = temp();
+                temps.put(key, temp);
+                statements.add(at(new Stmt.Var(temp, offset(expr), null), line));
+                return new Expr.Assign(temp, offset(expr), rebuild(expr));
+            }
+        }.copy(stmt);
+
+        statements.add(copy);
+        return statements;
+    }
+
+    /**
+     * @return e if expr is t or (t = e) the way hoist makes them, else
+     * null. e comes out the same every time in its loop, so working it
+     * out again is fine for a backend that would rather hoist it itself.
+     */
+    static Expr hoisted(Expr expr)
+    {
+        if(!(expr instanceof Expr.Logical)) return null;
+        Expr.Logical logical = (Expr.Logical)expr;
+        if(logical.operator != TokenType.OR || !(logical.left instanceof Expr.Variable)
+            || !(logical.right instanceof Expr.Assign)) return null;
+        Expr.Assign assign = (Expr.Assign)logical.right;
+        String temp = assign.name;
+        if(!temp.startsWith("$") || !temp.equals(((Expr.Variable)logical.left).name)) return null;
+        return assign.value;
+    }
+
+    private String temp()
+    {
+        return "$" + m_temps++;
+    }
+
+    /**
+     * of the operator at the top of arithmetic, for the nodes that stand in for it
+     */
+    private static int offset(Expr arithmetic)
+    {
+        if(arithmetic instanceof Expr.Unary) return ((Expr.Unary)arithmetic).offset;
+        return ((Expr.Binary)arithmetic).offset;
+    }
+
+    private static Stmt at(Stmt stmt, int line)
+    {
+        stmt.line = line;
+        return stmt;
+    }
+
+    private static boolean isCandidate(Expr expr, Set<String> assigned)
+    {
+        return expr instanceof Expr.Binary && isArithmetic(expr) && isPure(expr) && !readsAny(expr, assigned);
+    }
+
+    private static boolean isArithmetic(Expr expr)
+    {
+        if(expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator == TokenType.MINUS;
+        if(!(expr instanceof Expr.Binary)) return false;
+        switch(((Expr.Binary)expr).operator)
+        {
+            case TokenType.MINUS :
+            case TokenType.PLUS :
+            case TokenType.SLASH :
+            case TokenType.STAR :
+                return true;
+            default :
+                return false;
+        }
+    }
+
+    /**
+     * @return false if running expr changes a variable
+     */
+    private static boolean isPure(Expr expr)
+    {
+        if(expr instanceof Expr.Assign) return false;
+        if(expr instanceof Expr.Binary) return isPure(((Expr.Binary)expr).left) && isPure(((Expr.Binary)expr).right);
+        if(expr instanceof Expr.Logical) return isPure(((Expr.Logical)expr).left) && isPure(((Expr.Logical)expr).right);
+        if(expr instanceof Expr.Unary) return isPure(((Expr.Unary)expr).right);
+        if(expr instanceof Expr.Grouping) return isPure(((Expr.Grouping)expr).expression);
+        return true;
+    }
+
+    private static boolean readsAny(Expr expr, Set<String> names)
+    {
+        if(expr instanceof Expr.Variable) return names.contains(((Expr.Variable)expr).name);
+        if(expr instanceof Expr.Assign) return true;
+        if(expr instanceof Expr.Binary) return readsAny(((Expr.Binary)expr).left, names) || readsAny(((Expr.Binary)expr).right, names);
+        if(expr instanceof Expr.Logical) return readsAny(((Expr.Logical)expr).left, names) || readsAny(((Expr.Logical)expr).right, names);
+        if(expr instanceof Expr.Unary) return readsAny(((Expr.Unary)expr).right, names);
+        if(expr instanceof Expr.Grouping) return readsAny(((Expr.Grouping)expr).expression, names);
+        return false;
+    }
+
+    private static int operators(Expr expr)
+    {
+        if(expr instanceof Expr.Binary) return 1 + operators(((Expr.Binary)expr).left) + operators(((Expr.Binary)expr).right);
+        if(expr instanceof Expr.Logical) return 1 + operators(((Expr.Logical)expr).left) + operators(((Expr.Logical)expr).right);
+        if(expr instanceof Expr.Unary) return 1 + operators(((Expr.Unary)expr).right);
+        if(expr instanceof Expr.Grouping) return operators(((Expr.Grouping)expr).expression);
+        return 0;
+    }
+
+    /**
+     * @return the same string for two expressions exactly when they are
+     * written the same, strings carry their length so no two run together
+     */
+    static String key(Expr expr)
+    {
+        StringBuilder builder = new StringBuilder();
+        key(expr, builder);
+        return builder.toString();
+    }
+
+    private static void key(Expr expr, StringBuilder builder)
+    {
+        if(expr instanceof Expr.Literal)
+        {
+            Object value = ((Expr.Literal)expr).value;
+            if(value instanceof String) builder.append('s').append(((String)value).length()).append(':').append(value);
+            else if(value instanceof Double) builder.append('d').append(value);
+            else builder.append(value);
+        }
+        else if(expr instanceof Expr.Variable)
+        {
+            builder.append('v').append(((Expr.Variable)expr).name);
+        }
+        else if(expr instanceof Expr.Binary)
+        {
+            Expr.Binary binary = (Expr.Binary)expr;
+            builder.append('(').append(binary.operator).append(' ');
+            key(binary.left, builder);
+            builder.append(' ');
+            key(binary.right, builder);
+            builder.append(')');
+        }
+        else if(expr instanceof Expr.Logical)
+        {
+            Expr.Logical logical = (Expr.Logical)expr;
+            builder.append('(').append(logical.operator).append(' ');
+            key(logical.left, builder);
+            builder.append(' ');
+            key(logical.right, builder);
+            builder.append(')');
+        }
+        else if(expr instanceof Expr.Unary)
+        {
+            Expr.Unary unary = (Expr.Unary)expr;
+            builder.append('(').append(unary.operator).append(' ');
+            key(unary.right, builder);
+            builder.append(')');
+        }
+        else if(expr instanceof Expr.Grouping)
+        {
+            key(((Expr.Grouping)expr).expression, builder);
+        }
+        else
+        {
+            // assignments are never candidates, just keep them apart
+            builder.append('=').append(System.identityHashCode(expr));
+        }
+    }
+
+    /**
+     * The copy hoist makes of a loop. m_first stays true for as long as
+     * the copy is in the first test of the condition and nothing it went
+     * past could throw, what it finds up to there can be worked out
+     * before the loop instead.
+     */
+    private class Hoister extends Copier
+    {
+        private final Set<String> m_changing;
+        private final Set<String> m_defined;
+        private final int m_line;
+        final List<Stmt> m_statements = new ArrayList<>();
+        private final Map<String, String> m_hoisted = new HashMap<>();
+        // temps that are set before the loop starts
+        private final Set<String> m_ready = new HashSet<>();
+        boolean m_first = true;
+
+        Hoister(Set<String> l_changing, Set<String> l_defined, int l_line)
+        {
+            this.m_changing = l_changing;
+            this.m_defined = l_defined;
+            this.m_line = l_line;
+        }
+
+        @Override
+        Expr replace(Expr expr)
+        {
+            if(!isArithmetic(expr) || !isPure(expr) || readsAny(expr, m_changing)) return null;
+
+            String key = key(expr);
+            int offset = offset(expr);
+            String temp = m_hoisted.get(key);
+            if(temp == null)
+            {
+                // worked out once before the loop even one operator pays,
+                // t or (t = expr) costs about as much as one
+                boolean before = m_first && m_conditional == 0;
+                if(!before && operators(expr) < MIN_HOISTED_OPERATORS) return null;
+
+                temp = temp();
+                m_hoisted.put(key, temp);
+                // nothing in expr gets hoisted on its own, the loop we
+                // copy it from is thrown away so it can be used as it is
+                m_statements.add(at(new Stmt.Var(temp, offset, before ? expr : null), m_line));
+                if(before) m_ready.add(temp);
+            }
+            if(m_ready.contains(temp)) return new Expr.Variable(temp, offset);
+
+            m_first = false;
+            return new Expr.Logical(new Expr.Variable(temp, offset),
+                TokenType.OR, new Expr.Assign(temp, offset, expr));
+        }
+
+        // these can throw once their operands are worked out
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr)
+        {
+            Expr copy = super.visitAssignExpr(expr);
+            m_first = false;
+            return copy;
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr)
+        {
+            Expr copy = super.visitBinaryExpr(expr);
+            m_first = false;
+            return copy;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr)
+        {
+            Expr copy = super.visitUnaryExpr(expr);
+            m_first = false;
+            return copy;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr)
+        {
+            if(!m_defined.contains(expr.name)) m_first = false;
+            return super.visitVariableExpr(expr);
+        }
+    }
+
+    /**
+     * Copies a tree in the order it runs, giving replace a go at every
+     * expression on the way down. m_conditional says if the one replace
+     * is looking at might not run, it is on the right of an and/or.
+     */
+    private abstract static class Copier implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt>
+    {
+        int m_conditional = 0;
+
+        /**
+         * @return what goes in place of expr, null to copy it as it is
+         */
+        abstract Expr replace(Expr expr);
+
+        Stmt copy(Stmt stmt)
+        {
+            if(stmt == null) return null;
+            Stmt copy = stmt.accept(this);
+            copy.line = stmt.line;
+            return copy;
+        }
+
+        Expr copy(Expr expr)
+        {
+            if(expr == null) return null;
+            Expr replaced = replace(expr);
+            return replaced != null ? replaced : rebuild(expr);
+        }
+
+        /**
+         * expr with copies of its children
+         */
+        Expr rebuild(Expr expr)
+        {
+            return expr.accept(this);
+        }
+
+        private List<Stmt> copy(List<Stmt> statements)
+        {
+            List<Stmt> copies = new ArrayList<>(statements.size());
+            for(Stmt statement : statements)
+            {
+                copies.add(copy(statement));
+            }
+            return copies;
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt)
+        {
+            return new Stmt.Block(copy(stmt.statements));
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt)
+        {
+            return new Stmt.Expression(copy(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt)
+        {
+            Expr condition = copy(stmt.condition);
+            // the branches only run if the condition says so
+            m_conditional++;
+            Stmt thenBranch = copy(stmt.thenBranch);
+            Stmt elseBranch = copy(stmt.elseBranch);
+            m_conditional--;
+            return new Stmt.If(condition, thenBranch, elseBranch);
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt)
+        {
+            m_conditional++;
+            Stmt.While copy = new Stmt.While(copy(stmt.condition), copy(stmt.body));
+            m_conditional--;
+            return copy;
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt)
+        {
+            return new Stmt.Print(copy(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt)
+        {
+            return new Stmt.Var(stmt.name, stmt.offset, copy(stmt.initializer));
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr)
+        {
+            return new Expr.Assign(expr.name, expr.offset, copy(expr.value));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr)
+        {
+            Expr left = copy(expr.left);
+            return new Expr.Binary(left, expr.operator, expr.offset, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr)
+        {
+            return new Expr.Grouping(copy(expr.expression));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr)
+        {
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr)
+        {
+            Expr left = copy(expr.left);
+            m_conditional++;
+            Expr right = copy(expr.right);
+            m_conditional--;
+            return new Expr.Logical(left, expr.operator, right);
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr)
+        {
+            return new Expr.Unary(expr.operator, expr.offset, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr)
+        {
+            return new Expr.Variable(expr.name, expr.offset);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * A hot while loop from the Interpreter compiled to a JVM method.
+ * The interpreter hands over at the end of an iteration: the compiled
+ * loop picks up at the condition with the variables it uses copied in
+ * from the environments, and copies them back when it is done.
+ * Nothing in here changes once it is made, so other runs of the same
+ * Script can use it from their own threads.
+ */
+class CompiledLoop
+{
+    private final MethodHandle m_run;
+    private final JvmCompiler.Carried[] m_carried;
+
+    private CompiledLoop(MethodHandle l_run, List<JvmCompiler.Carried> l_carried)
+    {
+        this.m_run = l_run;
+        this.m_carried = l_carried.toArray(new JvmCompiler.Carried[0]);
+    }
+
+    /**
+     * @return the compiled loop, or null if this one cannot be compiled
+     */
+    static CompiledLoop compile(Stmt.While loop, Environment environment, Environment globals)
+    {
+        JvmCompiler compiler = new JvmCompiler();
+        byte[] bytes = compiler.compileLoop(loop, environment, globals);
+        if(bytes == null) return null;
+
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle run = lookup.findStatic(lookup.lookupClass(), JvmCompiler.RUN,
+                MethodType.methodType(void.class, Object[].class, PrintSink.class));
+            return new CompiledLoop(run, compiler.carried());
+        }
+        catch(ReflectiveOperationException error)
+        {
+            throw new IllegalStateException("Could not load compiled loop", error);
+        }
+    }
+
+    /**
+     * Runs the loop to the end in environment.
+     * @return false if a variable the loop was compiled to keep as a
+     * double does not hold a number this time, or a global it uses is
+     * not defined in these globals, nothing has run then
+     */
+    boolean run(Environment environment, Environment globals, PrintSink out)
+    {
+        Object[] values = new Object[m_carried.length];
+        for(int i = 0; i < m_carried.length; i++)
+        {
+            JvmCompiler.Carried carried = m_carried[i];
+            // the loop is shared by every run of the Script, a global the
+            // run it was compiled in had may not be there in this one, the
+            // Interpreter runs it then and says it is undefined
+            if(carried.m_distance == -1 && !globals.has(carried.m_name)) return false;
+            Object value = carried.m_distance == -1
+                ? globals.get(carried.m_name)
+                : environment.getAt(carried.m_distance, carried.m_slot);
+            if(carried.m_numeric && !(value instanceof Double)) return false;
+            values[i] = value;
+        }
+
+        try
+        {
+            m_run.invokeExact(values, out);
+        }
+        catch(RuntimeException | Error error)
+        {
+            throw error;
+        }
+        catch(Throwable error)
+        {
+            throw new IllegalStateException(error);
+        }
+        finally
+        {
+            // the compiled code put the values back even if it threw, every
+            // global was checked to be there so this only ever overwrites
+            for(int i = 0; i < m_carried.length; i++)
+            {
+                JvmCompiler.Carried carried = m_carried[i];
+                if(carried.m_distance == -1) globals.assign(carried.m_name, 0, values[i]);
+                else environment.assignAt(carried.m_distance, carried.m_slot, values[i]);
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,332 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Turns the resolved tree into a Chunk for the VM.
+ * Locals live on the VM stack: every block reserves as many slots as the
+ * resolver gave it when it starts and drops them when it ends, so a
+ * (depth, slot) pair from the resolver maps to a fixed stack index.
+ * Operands are two bytes, a script with more constants or longer jumps
+ * than that does not get a chunk at all.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+{
+    private final Chunk m_chunk = new Chunk();
+    // stack index where each enclosing block's slots start
+    private final List<Integer> m_frameBases = new ArrayList<>();
+    private int m_localCount = 0;
+    // source offset of the node being compiled, goes in the chunk with the code
+    private int m_offset = 0;
+
+    /** thrown when something does not fit in a two byte operand */
+    private static class TooLarge extends RuntimeException
+    {
+        TooLarge()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * @return the chunk, or null if the script is too big for one
+     */
+    Chunk compile(List<Stmt> statements)
+    {
+        try
+        {
+            for(Stmt statement : statements)
+            {
+                compile(statement);
+            }
+            emit(OpCode.RETURN);
+            return m_chunk;
+        }
+        catch(TooLarge error)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt)
+    {
+        // no slots means the resolver gave this block no scope either
+        if(stmt.slots == 0)
+        {
+            for(Stmt statement : stmt.statements)
+            {
+                compile(statement);
+            }
+            return null;
+        }
+
+        m_frameBases.add(m_localCount);
+        m_localCount += stmt.slots;
+        emitWithOperand(OpCode.RESERVE, stmt.slots);
+
+        for(Stmt statement : stmt.statements)
+        {
+            compile(statement);
+        }
+
+        emitWithOperand(OpCode.POPN, stmt.slots);
+        m_localCount -= stmt.slots;
+        m_frameBases.remove(m_frameBases.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt)
+    {
+        m_offset = stmt.offset;
+        if(stmt.initializer != null)
+        {
+            compile(stmt.initializer);
+        }
+        else
+        {
+            emit(OpCode.NIL);
+        }
+
+        if(stmt.slot == -1)
+        {
+            emitWithOperand(OpCode.DEFINE_GLOBAL, constant(stmt.name));
+        }
+        else
+        {
+            emitWithOperand(OpCode.SET_LOCAL, stackSlot(0, stmt.slot));
+            emit(OpCode.POP);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt)
+    {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt)
+    {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        emit(OpCode.POP);
+        if(stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        int loopStart = m_chunk.m_count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr)
+    {
+        if(expr.value == null) emit(OpCode.NIL);
+        else if(expr.value.equals(true)) emit(OpCode.TRUE);
+        else if(expr.value.equals(false)) emit(OpCode.FALSE);
+        else emitWithOperand(OpCode.CONSTANT, constant(expr.value));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr)
+    {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr)
+    {
+        compile(expr.left);
+        compile(expr.right);
+        m_offset = expr.offset;
+
+        switch(expr.operator)
+        {
+            case TokenType.MINUS         : emit(OpCode.SUBTRACT); break;
+            case TokenType.PLUS          : emit(OpCode.ADD); break;
+            case TokenType.SLASH         : emit(OpCode.DIVIDE); break;
+            case TokenType.STAR          : emit(OpCode.MULTIPLY); break;
+            case TokenType.GREATER       : emit(OpCode.GREATER); break;
+            case TokenType.GREATER_EQUAL : emit(OpCode.GREATER_EQUAL); break;
+            case TokenType.LESS          : emit(OpCode.LESS); break;
+            case TokenType.LESS_EQUAL    : emit(OpCode.LESS_EQUAL); break;
+            case TokenType.BANG_EQUAL    : emit(OpCode.NOT_EQUAL); break;
+            case TokenType.EQUAL_EQUAL   : emit(OpCode.EQUAL); break;
+            default:
+                // the tree walker gives back 0 here, keep it the same
+                emit(OpCode.POP);
+                emit(OpCode.POP);
+                emitWithOperand(OpCode.CONSTANT, constant(0));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr)
+    {
+        compile(expr.right);
+        m_offset = expr.offset;
+
+        switch(expr.operator)
+        {
+            case TokenType.BANG  : emit(OpCode.NOT); break;
+            case TokenType.MINUS : emit(OpCode.NEGATE); break;
+            default:
+                emit(OpCode.POP);
+                emitWithOperand(OpCode.CONSTANT, constant(0));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr)
+    {
+        compile(expr.left);
+
+        if(expr.operator == TokenType.OR)
+        {
+            // left is truthy -> skip the right side and keep left
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        else
+        {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr)
+    {
+        m_offset = expr.offset;
+        if(expr.depth == -1)
+        {
+            emitWithOperand(OpCode.GET_GLOBAL, constant(expr.name));
+        }
+        else
+        {
+            emitWithOperand(OpCode.GET_LOCAL, stackSlot(expr.depth, expr.slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr)
+    {
+        compile(expr.value);
+        m_offset = expr.offset;
+        if(expr.depth == -1)
+        {
+            emitWithOperand(OpCode.SET_GLOBAL, constant(expr.name));
+        }
+        else
+        {
+            emitWithOperand(OpCode.SET_LOCAL, stackSlot(expr.depth, expr.slot));
+        }
+        return null;
+    }
+
+    private void compile(Stmt stmt)
+    {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr)
+    {
+        expr.accept(this);
+    }
+
+    private int stackSlot(int depth, int slot)
+    {
+        return m_frameBases.get(m_frameBases.size() - 1 - depth) + slot;
+    }
+
+    private int constant(Object value)
+    {
+        int index = m_chunk.addConstant(value);
+        if(index > 0xffff) throw new TooLarge();
+        return index;
+    }
+
+    private void emit(byte op)
+    {
+        m_chunk.write(op, m_offset);
+    }
+
+    private void emitWithOperand(byte op, int operand)
+    {
+        emit(op);
+        emit((byte)((operand >> 8) & 0xff));
+        emit((byte)(operand & 0xff));
+    }
+
+    /**
+     * emits a jump with a placeholder offset
+     * @return where the offset is so patchJump can fill it in
+     */
+    private int emitJump(byte op)
+    {
+        emitWithOperand(op, 0xffff);
+        return m_chunk.m_count - 2;
+    }
+
+    private void patchJump(int offset)
+    {
+        // -2 to skip over the offset bytes themselves
+        int jump = m_chunk.m_count - offset - 2;
+        if(jump > 0xffff) throw new TooLarge();
+
+        m_chunk.m_code[offset] = (byte)((jump >> 8) & 0xff);
+        m_chunk.m_code[offset + 1] = (byte)(jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart)
+    {
+        // +3 for the LOOP instruction and its operand
+        int offset = m_chunk.m_count - loopStart + 3;
+        if(offset > 0xffff) throw new TooLarge();
+        emitWithOperand(OpCode.LOOP, offset);
+    }
+}
@@ -0,0 +1,146 @@
+package lox;
+
+import java.util.List;
+
+/**
+ * A while loop the Interpreter can run on a primitive double counter,
+ * which is what every for (var i = 0; i < n; i = i + 1) desugars to:
+ *
+ *   while (i < n) { body; i = i + step; }
+ *
+ * with i a local, step a number and n anything that comes out the same
+ * every time: it does not assign anything and the body does not assign
+ * what it reads, or it is what CodeMotion hoisted out of the loop. The
+ * body must not assign i either. There are no functions in Lox, so the
+ * body is the only place that could. n is worked out once when the loop
+ * starts and whether the values really are numbers is checked then, if
+ * they are not the Interpreter runs it the usual way and fails the usual
+ * way.
+ * Nothing in here changes once it is made.
+ */
+class CountedLoop
+{
+    // the counter, depth from the environment the loop runs in
+    final int m_depth;
+    final int m_slot;
+    final TokenType m_compare;
+    // worked out once, before the first time round
+    final Expr m_limit;
+    final double m_step;
+    // everything in the body but the increment
+    final List<Stmt> m_body;
+    // if not the counter only has to be stored when the loop is done
+    final boolean m_bodyReadsCounter;
+
+    private CountedLoop(Expr.Variable l_counter, TokenType l_compare, Expr l_limit,
+        double l_step, List<Stmt> l_body, boolean l_bodyReadsCounter)
+    {
+        this.m_depth = l_counter.depth;
+        this.m_slot = l_counter.slot;
+        this.m_compare = l_compare;
+        this.m_limit = l_limit;
+        this.m_step = l_step;
+        this.m_body = l_body;
+        this.m_bodyReadsCounter = l_bodyReadsCounter;
+    }
+
+    /**
+     * @param loop resolved already
+     * @return the loop as a counted one, null if it does not have the shape
+     */
+    static CountedLoop recognize(Stmt.While loop)
+    {
+        if(!(loop.condition instanceof Expr.Binary)) return null;
+        Expr.Binary condition = (Expr.Binary)loop.condition;
+        switch(condition.operator)
+        {
+            case TokenType.LESS :
+            case TokenType.LESS_EQUAL :
+            case TokenType.GREATER :
+            case TokenType.GREATER_EQUAL :
+                break;
+            default :
+                return null;
+        }
+
+        // only a local, which is what the var of a for is
+        if(!(condition.left instanceof Expr.Variable)) return null;
+        Expr.Variable counter = (Expr.Variable)condition.left;
+        if(counter.depth == -1) return null;
+        String name = counter.name;
+
+        // the body and the increment in a block that declares nothing, so
+        // the increment runs in the same environment as the condition
+        if(!(loop.body instanceof Stmt.Block)) return null;
+        Stmt.Block block = (Stmt.Block)loop.body;
+        if(block.slots != 0 || block.statements.isEmpty()) return null;
+        Stmt last = block.statements.get(block.statements.size() - 1);
+        if(!(last instanceof Stmt.Expression)) return null;
+        Double step = step(((Stmt.Expression)last).expression, counter);
+        if(step == null) return null;
+
+        List<Stmt> body = block.statements.subList(0, block.statements.size() - 1);
+        VariableUses uses = new VariableUses();
+        for(Stmt statement : body)
+        {
+            statement.accept(uses);
+        }
+        if(uses.m_assigned.contains(name)) return null;
+
+        // for what CodeMotion hoisted only e matters, the body can only
+        // ever set t to what e is too
+        Expr limit = condition.right;
+        Expr hoisted = CodeMotion.hoisted(limit);
+        VariableUses limitUses = new VariableUses();
+        (hoisted != null ? hoisted : limit).accept(limitUses);
+        if(!limitUses.m_assigned.isEmpty() || limitUses.m_read.contains(name)) return null;
+        for(String read : limitUses.m_read)
+        {
+            if(uses.m_assigned.contains(read)) return null;
+        }
+
+        return new CountedLoop(counter, condition.operator, limit, step, body, uses.m_read.contains(name));
+    }
+
+    /**
+     * @return c for counter = counter + c and -c for counter = counter - c,
+     * null for anything else
+     */
+    private static Double step(Expr increment, Expr.Variable counter)
+    {
+        if(!(increment instanceof Expr.Assign)) return null;
+        Expr.Assign assign = (Expr.Assign)increment;
+        if(!isCounter(assign.name, assign.depth, assign.slot, counter)) return null;
+        if(!(assign.value instanceof Expr.Binary)) return null;
+
+        Expr.Binary value = (Expr.Binary)assign.value;
+        if(!(value.left instanceof Expr.Variable)) return null;
+        Expr.Variable left = (Expr.Variable)value.left;
+        if(!isCounter(left.name, left.depth, left.slot, counter)) return null;
+        if(!(value.right instanceof Expr.Literal) || !(((Expr.Literal)value.right).value instanceof Double)) return null;
+
+        double step = (Double)((Expr.Literal)value.right).value;
+        switch(value.operator)
+        {
+            case TokenType.PLUS  : return step;
+            case TokenType.MINUS : return -step;
+            default              : return null;
+        }
+    }
+
+    private static boolean isCounter(String name, int depth, int slot, Expr.Variable counter)
+    {
+        return name.equals(counter.name) && depth == counter.depth && slot == counter.slot;
+    }
+
+    boolean test(double counter, double limit)
+    {
+        switch(m_compare)
+        {
+            case TokenType.LESS          : return counter < limit;
+            case TokenType.LESS_EQUAL    : return counter <= limit;
+            case TokenType.GREATER       : return counter > limit;
+            default                      : return counter >= limit;
+        }
+    }
+}
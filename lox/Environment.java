@@ -6,19 +6,59 @@ public class Environment
 {
     final Environment enclosing; // reference to the 
     // environment that is enclosing this environment
-    private final Map<String, Object> values = new HashMap<>();
+    // globals, one cell per name that stays the same for as long as
+    // these globals live, so a Variable or Assign can hold on to it
+    private final Map<String, Cell> cells;
+    // locals live here, the resolver already told us which slot each
+    // one gets so we never have to hash a name for them
+    final Object[] slots;
 
     Environment()
+    {
+        this(new HashMap<>());
+    }
+
+    /**
+     * a global variable, m_globals is who it belongs to because the nodes
+     * caching it are shared by every Interpreter running the same tree
+     */
+    static final class Cell
+    {
+        final Environment m_globals;
+        Object m_value;
+
+        Cell(Environment l_globals, Object l_value)
+        {
+            this.m_globals = l_globals;
+            this.m_value = l_value;
+        }
+    }
+
+    /**
+     * globals starting out as what is in l_values, Script.run hands in
+     * the caller's map and gets them back with copyTo
+     */
+    Environment(Map<String, Object> l_values)
     {
         enclosing = null;
+        cells = new HashMap<>();
+        for(Map.Entry<String, Object> entry : l_values.entrySet())
+        {
+            cells.put(entry.getKey(), new Cell(this, entry.getValue()));
+        }
+        LoxMetrics.m_environments.increment();
+        slots = null;
         // only global environment's enclosing field would be null
         // as that is enclosing every other environment
         // but no one is enclosing him
     }
 
-    Environment(Environment enclosing)
+    Environment(Environment enclosing, int size)
     {
         this.enclosing = enclosing;
+        this.cells = null;
+        this.slots = new Object[size];
+        LoxMetrics.m_environments.increment();
     }
 
     void define(String name, Object value)
@@ -28,22 +68,46 @@ public class Environment
         // REPL and scripts 
         // so var a = 1;
         // var a = 2; would work bad practice i know
-        values.put(name,value);
+        // the second one goes into the same cell, so whoever cached it
+        // sees the new value and nothing has to be thrown away
+        Cell cell = cells.get(name);
+        if(cell == null) cells.put(name, new Cell(this, value));
+        else cell.m_value = value;
+    }
+
+    /**
+     * @return the global's cell, null if it was never defined
+     */
+    Cell cell(String name)
+    {
+        return cells.get(name);
+    }
+
+    /**
+     * puts every global into values, strings flattened
+     */
+    void copyTo(Map<String, Object> values)
+    {
+        for(Map.Entry<String, Cell> entry : cells.entrySet())
+        {
+            values.put(entry.getKey(), Rope.flatten(entry.getValue().m_value));
+        }
     }
 
     /**
      * this well gets the value of the variable
      */
-    Object get(Token name)
+    Object get(String name, int offset)
     {
-        if(values.containsKey(name.m_lexeme))
+        Cell cell = cells.get(name);
+        if(cell != null)
         {
-            return values.get(name.m_lexeme);
+            return cell.m_value;
         }
         //If the variable isn’t found in this environment, we simply try the enclosing one.
         // That in turn does the same thing recursively, so this will ultimately walk the
         // entire chain.
-        if(enclosing != null) return enclosing.get(name);
+        if(enclosing != null) return enclosing.get(name, offset);
 
         // notice we made referring a undefined variale a 
         // runtime error rather than a static error
@@ -51,25 +115,65 @@ public class Environment
         // variable before it’s been declared, it becomes much 
         //harder to define recursive
         //  functions
-        throw new RuntimeError(name, "Undefined varialble"+
-        name.m_lexeme + ".");
+        throw new RuntimeError(offset, "Undefined varialble"+
+        name + ".");
+    }
+
+    /**
+     * compiled loops check this up front instead of catching get throwing
+     */
+    boolean has(String name)
+    {
+        return cells.containsKey(name);
+    }
+
+    Object get(String name)
+    {
+        Cell cell = cells.get(name);
+        return cell == null ? null : cell.m_value;
     }
 
-    void assign(Token name, Object value)
+    void assign(String name, int offset, Object value)
     {
-        if(values.containsKey(name.m_lexeme))
+        Cell cell = cells.get(name);
+        if(cell != null)
         {
-            values.put(name.m_lexeme, value);
+            cell.m_value = value;
             return;
         }
 
         //same with assignment as we did with get we walk down the chain
         if(enclosing != null)
         {
-            enclosing.assign(name, value);
+            enclosing.assign(name, offset, value);
             return;
         }
-        throw new RuntimeError(name, 
-        "Undefined variable " + name.m_lexeme + ".");
+        throw new RuntimeError(offset, 
+        "Undefined variable " + name + ".");
+    }
+
+    /**
+     * walks up exactly distance hops, the resolver has already
+     * checked that the environment is there
+     */
+    Environment ancestor(int distance)
+    {
+        Environment environment = this;
+        for(int i = 0; i < distance; i++)
+        {
+            environment = environment.enclosing;
+        }
+
+        return environment;
+    }
+
+    Object getAt(int distance, int slot)
+    {
+        return ancestor(distance).slots[slot];
+    }
+
+    void assignAt(int distance, int slot, Object value)
+    {
+        ancestor(distance).slots[slot] = value;
     }
 }
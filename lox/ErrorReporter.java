@@ -0,0 +1,57 @@
+package lox;
+
+/**
+ * Hands errors to an ErrorSink and remembers that there were some.
+ * One of these goes with each compile or run, it used to be statics
+ * on Lox which made two scripts at once impossible.
+ */
+class ErrorReporter
+{
+    private final ErrorSink m_sink;
+    boolean m_hadError;
+    boolean m_hadRuntimeError;
+    // of the source being run, whoever lexes it puts its table here
+    LineTable m_lines = new LineTable();
+
+    ErrorReporter(ErrorSink l_sink)
+    {
+        this.m_sink = l_sink;
+    }
+
+    void error(int l_line, String l_message)
+    {
+        report(l_line, "", l_message);
+    }
+
+    void error(Token l_token, String l_message)
+    {
+        if(l_token.m_type == TokenType.EOF)
+        {
+            report(l_token.m_line, " at end", l_message);
+        }
+        else
+        {
+            report(l_token.m_line, " at " + l_token.m_lexeme + "'", l_message);
+        }
+    }
+
+    /**
+     * for errors found after parsing, the tree only has offsets
+     */
+    void errorAt(int l_offset, String l_message)
+    {
+        report(m_lines.line(l_offset), "", l_message);
+    }
+
+    private void report(int l_line, String l_where, String l_message)
+    {
+        m_sink.error(l_line, l_where, l_message);
+        m_hadError = true;
+    }
+
+    void runtimeError(RuntimeError l_error)
+    {
+        m_sink.runtimeError(m_lines.line(l_error.m_offset), l_error.getMessage());
+        m_hadRuntimeError = true;
+    }
+}
@@ -0,0 +1,42 @@
+package lox;
+
+import java.io.PrintStream;
+
+/**
+ * Where a compile or a run sends its errors. Each Script.compile and
+ * Script.run takes its own, so scripts running side by side never see
+ * each other's errors.
+ */
+public interface ErrorSink
+{
+    /**
+     * a syntax error, where is "" or " at end" or " at <lexeme>'"
+     */
+    void error(int line, String where, String message);
+
+    /**
+     * a runtime error, the script stopped at this line
+     */
+    void runtimeError(int line, String message);
+
+    /**
+     * @return a sink that prints errors the way the jlox command does
+     */
+    static ErrorSink printingTo(PrintStream out)
+    {
+        return new ErrorSink()
+        {
+            @Override
+            public void error(int line, String where, String message)
+            {
+                out.println("line[" + line +"] Error" + where + ": " + message);
+            }
+
+            @Override
+            public void runtimeError(int line, String message)
+            {
+                out.println(message + "\n[line " + line + "]");
+            }
+        };
+    }
+}
@@ -13,8 +13,9 @@ abstract class Expr{
     R visitVariableExpr(Variable expr);
   }
  static class Assign extends Expr{
-    Assign(Token name, Expr value) {
+    Assign(String name, int offset, Expr value) {
     this.name = name;
+    this.offset = offset;
     this.value = value;
     }
 
@@ -23,13 +24,19 @@ abstract class Expr{
     return visitor.visitAssignExpr(this);
     }
 
-    final Token name;
+    final String name;
+    final  int offset;
     final  Expr value;
+
+    int depth = -1;
+    int slot;
+    Environment.Cell cell;
   }
  static class Binary extends Expr{
-    Binary(Expr left, Token operator, Expr right) {
+    Binary(Expr left, TokenType operator, int offset, Expr right) {
     this.left = left;
     this.operator = operator;
+    this.offset = offset;
     this.right = right;
     }
 
@@ -39,8 +46,11 @@ abstract class Expr{
     }
 
     final Expr left;
-    final  Token operator;
+    final  TokenType operator;
+    final  int offset;
     final  Expr right;
+
+    int state;
   }
  static class Grouping extends Expr{
     Grouping(Expr expression) {
@@ -67,7 +77,7 @@ abstract class Expr{
     final Object value;
   }
  static class Logical extends Expr{
-    Logical(Expr left,Token operator, Expr right) {
+    Logical(Expr left, TokenType operator, Expr right) {
     this.left = left;
     this.operator = operator;
     this.right = right;
@@ -79,12 +89,13 @@ abstract class Expr{
     }
 
     final Expr left;
-    final Token operator;
+    final  TokenType operator;
     final  Expr right;
   }
  static class Unary extends Expr{
-    Unary(Token operator, Expr right) {
+    Unary(TokenType operator, int offset, Expr right) {
     this.operator = operator;
+    this.offset = offset;
     this.right = right;
     }
 
@@ -93,12 +104,16 @@ abstract class Expr{
     return visitor.visitUnaryExpr(this);
     }
 
-    final Token operator;
+    final TokenType operator;
+    final  int offset;
     final  Expr right;
+
+    int state;
   }
  static class Variable extends Expr{
-    Variable(Token name) {
+    Variable(String name, int offset) {
     this.name = name;
+    this.offset = offset;
     }
 
     @Override
@@ -106,7 +121,12 @@ abstract class Expr{
     return visitor.visitVariableExpr(this);
     }
 
-    final Token name;
+    final String name;
+    final  int offset;
+
+    int depth = -1;
+    int slot;
+    Environment.Cell cell;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
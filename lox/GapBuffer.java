@@ -0,0 +1,88 @@
+package lox;
+
+/**
+ * Text that gets edited in place, for IncrementalParser. The free space
+ * sits at the last edit, so typing in one spot only ever moves the chars
+ * between one edit and the next, not the whole text.
+ */
+class GapBuffer implements CharSequence
+{
+    private char[] m_chars;
+    private int m_gapStart;
+    private int m_gapEnd;
+
+    GapBuffer(String l_text)
+    {
+        this.m_chars = new char[l_text.length() + 64];
+        l_text.getChars(0, l_text.length(), m_chars, 0);
+        this.m_gapStart = l_text.length();
+        this.m_gapEnd = m_chars.length;
+    }
+
+    /**
+     * takes out removed chars at offset and puts inserted there instead
+     */
+    void replace(int offset, int removed, String inserted)
+    {
+        moveGap(offset);
+        m_gapEnd += removed;
+        int length = inserted.length();
+        if(m_gapEnd - m_gapStart < length) grow(length);
+        inserted.getChars(0, length, m_chars, m_gapStart);
+        m_gapStart += length;
+    }
+
+    @Override
+    public int length()
+    {
+        return m_chars.length - (m_gapEnd - m_gapStart);
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return index < m_gapStart ? m_chars[index] : m_chars[index + m_gapEnd - m_gapStart];
+    }
+
+    @Override
+    public String subSequence(int start, int end)
+    {
+        char[] chars = new char[end - start];
+        for(int i = start; i < end; i++) chars[i - start] = charAt(i);
+        return new String(chars);
+    }
+
+    @Override
+    public String toString()
+    {
+        return subSequence(0, length());
+    }
+
+    private void moveGap(int offset)
+    {
+        if(offset < m_gapStart)
+        {
+            int count = m_gapStart - offset;
+            System.arraycopy(m_chars, offset, m_chars, m_gapEnd - count, count);
+            m_gapStart -= count;
+            m_gapEnd -= count;
+        }
+        else if(offset > m_gapStart)
+        {
+            int count = offset - m_gapStart;
+            System.arraycopy(m_chars, m_gapEnd, m_chars, m_gapStart, count);
+            m_gapStart += count;
+            m_gapEnd += count;
+        }
+    }
+
+    private void grow(int needed)
+    {
+        int after = m_chars.length - m_gapEnd;
+        char[] chars = new char[Math.max(m_chars.length * 2, m_chars.length + needed + 64)];
+        System.arraycopy(m_chars, 0, chars, 0, m_gapStart);
+        System.arraycopy(m_chars, m_gapEnd, chars, chars.length - after, after);
+        m_gapEnd = chars.length - after;
+        m_chars = chars;
+    }
+}
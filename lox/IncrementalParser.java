@@ -0,0 +1,764 @@
+package lox;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Keeps a source parsed while it is being edited, for editors and the
+ * like. The text is kept as entries, one per top level statement as
+ * StatementScanner cuts them, each with the statements it parsed to and
+ * those optimized and resolved. An edit re-lexes and re-parses the entry
+ * it lands in, the one before it (typing an else can glue two together),
+ * and only as many after it as it takes until a cut lines up with an old
+ * one again. Every other entry keeps its Stmt trees, so the work per edit
+ * depends on the size of the statements around it and not on the size
+ * of the file.
+ *
+ * An entry with a syntax error only has that error, the parser never
+ * goes looking into the next statement to recover like a parse of the
+ * whole file would.
+ *
+ * So that text above an edit can change without touching the trees
+ * below it, lines and offsets in a tree are the entry's own: lines count
+ * from 1 at the top of the entry, and offsets from the entry's base. A
+ * base is handed out once when the entry is parsed and never changes, no
+ * two entries overlap so an offset still says which entry it is in.
+ *
+ * The entries are the leaves of a tree that is never changed, an edit
+ * builds new nodes down to the entries it replaced and shares the rest.
+ * statements() and script() hand out views of the tree as it is, they
+ * do not copy anything and later edits do not change them.
+ */
+public final class IncrementalParser
+{
+    private static final int[] NO_NEWLINES = new int[0];
+
+    /**
+     * a top level statement, or the text after the last one. Nothing in
+     * it changes once it is parsed, the views of older trees still use it
+     */
+    private static class Entry
+    {
+        final int m_length;
+        // offset of every newline in the entry
+        final int[] m_newlines;
+        final List<Stmt> m_statements;
+        // optimized and resolved, null if there are syntax errors
+        final List<Stmt> m_resolved;
+        // what offset 0 of the entry is in its trees
+        final int m_base;
+        // syntax errors with their lines counted from 0 at the top
+        final List<SyntaxError> m_errors;
+
+        Entry(int l_length, int[] l_newlines, List<Stmt> l_statements, int l_base, List<SyntaxError> l_errors)
+        {
+            this.m_length = l_length;
+            this.m_newlines = l_newlines;
+            this.m_statements = l_statements;
+            this.m_base = l_base;
+            this.m_errors = l_errors;
+            this.m_resolved = l_errors.isEmpty() ? resolve(l_statements) : null;
+        }
+
+        /**
+         * @return the same entry with its trees copied over to base
+         */
+        Entry movedTo(int base)
+        {
+            List<Stmt> statements = new Mover(base - m_base).copy(m_statements);
+            return new Entry(m_length, m_newlines, statements, base, m_errors);
+        }
+
+        /**
+         * @return how many newlines come before offset in the entry
+         */
+        int newlinesBefore(int offset)
+        {
+            int low = 0;
+            int high = m_newlines.length;
+            while(low < high)
+            {
+                int mid = (low + high) >>> 1;
+                if(m_newlines[mid] < offset) low = mid + 1;
+                else high = mid;
+            }
+            return low;
+        }
+    }
+
+    private static class SyntaxError
+    {
+        final int m_line;
+        final String m_where;
+        final String m_message;
+
+        SyntaxError(int l_line, String l_where, String l_message)
+        {
+            this.m_line = l_line;
+            this.m_where = l_where;
+            this.m_message = l_message;
+        }
+    }
+
+    /**
+     * The entries in text order are what an in-order walk finds. Every
+     * node adds up what is under it, so the entry an offset is in or the
+     * n-th statement is one walk down from the root.
+     */
+    private static final class Node
+    {
+        final Entry m_entry;
+        final Node m_left;
+        final Node m_right;
+        final int m_size;
+        final int m_length;
+        final int m_newlines;
+        final int m_statements;
+        final int m_resolved;
+        // entries with syntax errors
+        final int m_errors;
+        // the bases under here are all between these two
+        final int m_minBase;
+        final int m_maxEnd;
+
+        Node(Node l_left, Entry l_entry, Node l_right)
+        {
+            this.m_entry = l_entry;
+            this.m_left = l_left;
+            this.m_right = l_right;
+            this.m_size = size(l_left) + 1 + size(l_right);
+            this.m_length = length(l_left) + l_entry.m_length + length(l_right);
+            this.m_newlines = newlines(l_left) + l_entry.m_newlines.length + newlines(l_right);
+            this.m_statements = count(l_left, false) + l_entry.m_statements.size() + count(l_right, false);
+            this.m_resolved = count(l_left, true) + statementsOf(l_entry, true).size() + count(l_right, true);
+            this.m_errors = errors(l_left) + (l_entry.m_errors.isEmpty() ? 0 : 1) + errors(l_right);
+
+            int minBase = l_entry.m_base;
+            int maxEnd = l_entry.m_base + l_entry.m_length;
+            if(l_left != null)
+            {
+                minBase = Math.min(minBase, l_left.m_minBase);
+                maxEnd = Math.max(maxEnd, l_left.m_maxEnd);
+            }
+            if(l_right != null)
+            {
+                minBase = Math.min(minBase, l_right.m_minBase);
+                maxEnd = Math.max(maxEnd, l_right.m_maxEnd);
+            }
+            this.m_minBase = minBase;
+            this.m_maxEnd = maxEnd;
+        }
+    }
+
+    private final GapBuffer m_text;
+    private Node m_root;
+    // the base the next entry parsed gets
+    private int m_nextBase = 0;
+
+    public IncrementalParser(String source)
+    {
+        this.m_text = new GapBuffer("");
+        edit(0, 0, source);
+    }
+
+    /**
+     * replaces removed chars at offset with inserted and parses again
+     * what that touched
+     */
+    public void edit(int offset, int removed, String inserted)
+    {
+        if(offset < 0 || removed < 0 || offset + removed > m_text.length())
+        {
+            throw new IndexOutOfBoundsException("edit " + offset + "+" + removed + " of " + m_text.length());
+        }
+
+        // from the start of the entry before the one the edit is in
+        int first = m_root == null ? 0 : entryAt(offset);
+        if(first > 0) first--;
+        int start = startOf(first);
+        // an edit parses at most all of the text again, this leaves room
+        // for that many times over before the bases run out
+        if(m_nextBase > Integer.MAX_VALUE / 2) rebase();
+
+        int delta = inserted.length() - removed;
+        m_text.replace(offset, removed, inserted);
+        int editEnd = offset + inserted.length();
+
+        // scan the new text from start, and walk the old entries along with
+        // it, until a cut past the edit is where an old entry ended too
+        List<Entry> fresh = new ArrayList<>();
+        StatementScanner scanner = new StatementScanner(m_text);
+        int entries = size(m_root);
+        int last = first - 1;
+        int oldEnd = start;
+        int at = start;
+        while(true)
+        {
+            int cut = scanner.next(at);
+            int end = cut == -1 ? m_text.length() : cut;
+            if(end > at) fresh.add(parse(at, end));
+            if(cut == -1)
+            {
+                last = entries - 1;
+                break;
+            }
+            at = cut;
+
+            if(cut >= editEnd)
+            {
+                int old = cut - delta;
+                while(oldEnd < old && last + 1 < entries)
+                {
+                    oldEnd += entry(++last).m_length;
+                }
+                if(oldEnd == old) break;
+            }
+        }
+
+        replace(first, last, fresh);
+    }
+
+    public String text()
+    {
+        return m_text.toString();
+    }
+
+    public boolean hadError()
+    {
+        return errors(m_root) > 0;
+    }
+
+    /**
+     * hands every syntax error there is now to errors, in order
+     */
+    public void reportErrors(ErrorSink errors)
+    {
+        report(m_root, 1, errors);
+    }
+
+    /**
+     * @return the source as it is now, ready to run, null if it has syntax errors
+     */
+    public Script script()
+    {
+        if(hadError()) return null;
+        return Script.fromResolved(new Statements(m_root, true), new EntryLines(m_root));
+    }
+
+    /**
+     * the parsed statements, not optimized or resolved yet, the trees are
+     * the entries' own with lines and offsets counted like they count them
+     */
+    List<Stmt> statements()
+    {
+        return new Statements(m_root, false);
+    }
+
+    private Entry parse(int start, int end)
+    {
+        String text = m_text.subSequence(start, end);
+        int count = 0;
+        for(int i = 0; i < text.length(); i++)
+        {
+            if(text.charAt(i) == '\n') count++;
+        }
+        int[] newlines = count == 0 ? NO_NEWLINES : new int[count];
+        for(int i = 0, n = 0; n < count; i++)
+        {
+            if(text.charAt(i) == '\n') newlines[n++] = i;
+        }
+
+        // offset length is the end of the entry, errors at the very end
+        // are reported there so it has to stay inside the entry's bases
+        int base = m_nextBase;
+        m_nextBase += text.length() + 1;
+        List<SyntaxError> syntaxErrors = new ArrayList<>();
+        ErrorReporter errors = new ErrorReporter(new ErrorSink()
+        {
+            @Override
+            public void error(int errorLine, String where, String message)
+            {
+                syntaxErrors.add(new SyntaxError(errorLine - 1, where, message));
+            }
+
+            @Override
+            public void runtimeError(int errorLine, String message)
+            {
+            }
+        });
+        TokenBuffer tokens = new Lexer(text, 0, text.length(), 1, errors).scanBuffer();
+        List<Stmt> statements = new Parser(tokens, errors, base).parse();
+        return new Entry(text.length(), newlines, statements, base, syntaxErrors);
+    }
+
+    /**
+     * the top level keeps no scope and no state from one statement to the
+     * next, so every entry can go through the passes on its own
+     */
+    private static List<Stmt> resolve(List<Stmt> statements)
+    {
+        List<Stmt> resolved = new Optimizer().optimize(statements);
+        new Resolver().resolve(resolved);
+        return resolved;
+    }
+
+    /**
+     * puts fresh where entries first to last were
+     */
+    private void replace(int first, int last, List<Entry> fresh)
+    {
+        Node[] before = split(m_root, first);
+        Node[] after = split(before[1], last - first + 1);
+        m_root = merge(merge(before[0], build(fresh, 0, fresh.size())), after[1]);
+    }
+
+    /**
+     * hands out the bases again from 0, in the order the entries are in.
+     * It copies every tree so it is only for when they run out.
+     */
+    private void rebase()
+    {
+        List<Entry> entries = new ArrayList<>(size(m_root));
+        collect(m_root, entries);
+        m_nextBase = 0;
+        for(int i = 0; i < entries.size(); i++)
+        {
+            Entry entry = entries.get(i);
+            if(entry.m_base != m_nextBase) entries.set(i, entry.movedTo(m_nextBase));
+            m_nextBase += entry.m_length + 1;
+        }
+        m_root = build(entries, 0, entries.size());
+    }
+
+    /**
+     * @return index of the entry offset is in, the last one for the very
+     * end of the text
+     */
+    private int entryAt(int offset)
+    {
+        Node node = m_root;
+        int index = 0;
+        while(true)
+        {
+            int left = length(node.m_left);
+            if(offset < left)
+            {
+                node = node.m_left;
+                continue;
+            }
+            offset -= left;
+            index += size(node.m_left);
+            if(offset < node.m_entry.m_length || node.m_right == null) return index;
+            offset -= node.m_entry.m_length;
+            index++;
+            node = node.m_right;
+        }
+    }
+
+    /**
+     * @return where entry index starts in the text
+     */
+    private int startOf(int index)
+    {
+        Node node = m_root;
+        int start = 0;
+        while(node != null)
+        {
+            int left = size(node.m_left);
+            if(index < left)
+            {
+                node = node.m_left;
+                continue;
+            }
+            start += length(node.m_left);
+            if(index == left) return start;
+            start += node.m_entry.m_length;
+            index -= left + 1;
+            node = node.m_right;
+        }
+        return start;
+    }
+
+    private Entry entry(int index)
+    {
+        Node node = m_root;
+        while(true)
+        {
+            int left = size(node.m_left);
+            if(index < left) node = node.m_left;
+            else if(index == left) return node.m_entry;
+            else
+            {
+                index -= left + 1;
+                node = node.m_right;
+            }
+        }
+    }
+
+    /**
+     * @return the line after the node's text
+     */
+    private static int report(Node node, int line, ErrorSink errors)
+    {
+        if(node == null) return line;
+        if(node.m_errors == 0) return line + node.m_newlines;
+
+        line = report(node.m_left, line, errors);
+        for(SyntaxError error : node.m_entry.m_errors)
+        {
+            errors.error(line + error.m_line, error.m_where, error.m_message);
+        }
+        line += node.m_entry.m_newlines.length;
+        return report(node.m_right, line, errors);
+    }
+
+    private static void collect(Node node, List<Entry> entries)
+    {
+        if(node == null) return;
+        collect(node.m_left, entries);
+        entries.add(node.m_entry);
+        collect(node.m_right, entries);
+    }
+
+    /**
+     * a tree as flat as it gets of entries from to to
+     */
+    private static Node build(List<Entry> entries, int from, int to)
+    {
+        if(from == to) return null;
+        int mid = (from + to) >>> 1;
+        return new Node(build(entries, from, mid), entries.get(mid), build(entries, mid + 1, to));
+    }
+
+    /**
+     * Puts left before right. Which root stays on top is picked at random
+     * by how many entries each side has, that keeps the tree about
+     * log n deep whatever order the edits come in.
+     */
+    private static Node merge(Node left, Node right)
+    {
+        if(left == null) return right;
+        if(right == null) return left;
+        if(ThreadLocalRandom.current().nextInt(left.m_size + right.m_size) < left.m_size)
+        {
+            return new Node(left.m_left, left.m_entry, merge(left.m_right, right));
+        }
+        return new Node(merge(left, right.m_left), right.m_entry, right.m_right);
+    }
+
+    /**
+     * @return the first count entries of node and the rest
+     */
+    private static Node[] split(Node node, int count)
+    {
+        if(node == null) return new Node[] { null, null };
+        int left = size(node.m_left);
+        if(count <= left)
+        {
+            Node[] parts = split(node.m_left, count);
+            parts[1] = new Node(parts[1], node.m_entry, node.m_right);
+            return parts;
+        }
+        Node[] parts = split(node.m_right, count - left - 1);
+        parts[0] = new Node(node.m_left, node.m_entry, parts[0]);
+        return parts;
+    }
+
+    private static int size(Node node)
+    {
+        return node == null ? 0 : node.m_size;
+    }
+
+    private static int length(Node node)
+    {
+        return node == null ? 0 : node.m_length;
+    }
+
+    private static int newlines(Node node)
+    {
+        return node == null ? 0 : node.m_newlines;
+    }
+
+    private static int errors(Node node)
+    {
+        return node == null ? 0 : node.m_errors;
+    }
+
+    private static int count(Node node, boolean resolved)
+    {
+        if(node == null) return 0;
+        return resolved ? node.m_resolved : node.m_statements;
+    }
+
+    private static List<Stmt> statementsOf(Entry entry, boolean resolved)
+    {
+        if(!resolved) return entry.m_statements;
+        return entry.m_resolved == null ? Collections.emptyList() : entry.m_resolved;
+    }
+
+    /**
+     * every statement of the entries under a root one after the other,
+     * the parsed ones or the resolved ones
+     */
+    private static final class Statements extends AbstractList<Stmt>
+    {
+        private final Node m_root;
+        private final boolean m_resolved;
+
+        Statements(Node l_root, boolean l_resolved)
+        {
+            this.m_root = l_root;
+            this.m_resolved = l_resolved;
+        }
+
+        @Override
+        public int size()
+        {
+            return count(m_root, m_resolved);
+        }
+
+        @Override
+        public Stmt get(int index)
+        {
+            if(index < 0 || index >= size())
+            {
+                throw new IndexOutOfBoundsException(index + " of " + size());
+            }
+            Node node = m_root;
+            while(true)
+            {
+                int left = count(node.m_left, m_resolved);
+                if(index < left)
+                {
+                    node = node.m_left;
+                    continue;
+                }
+                index -= left;
+                List<Stmt> own = statementsOf(node.m_entry, m_resolved);
+                if(index < own.size()) return own.get(index);
+                index -= own.size();
+                node = node.m_right;
+            }
+        }
+
+        @Override
+        public Iterator<Stmt> iterator()
+        {
+            return new StatementIterator(m_root, m_resolved);
+        }
+    }
+
+    /**
+     * walks the tree in order instead of going down from the root for
+     * every statement like get does
+     */
+    private static final class StatementIterator implements Iterator<Stmt>
+    {
+        private final boolean m_resolved;
+        // nodes whose entry and right side are still to come
+        private final ArrayDeque<Node> m_path = new ArrayDeque<>();
+        private List<Stmt> m_current = Collections.emptyList();
+        private int m_next = 0;
+
+        StatementIterator(Node l_root, boolean l_resolved)
+        {
+            this.m_resolved = l_resolved;
+            descend(l_root);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            while(m_next == m_current.size())
+            {
+                if(m_path.isEmpty()) return false;
+                Node node = m_path.pop();
+                m_current = statementsOf(node.m_entry, m_resolved);
+                m_next = 0;
+                descend(node.m_right);
+            }
+            return true;
+        }
+
+        @Override
+        public Stmt next()
+        {
+            if(!hasNext()) throw new NoSuchElementException();
+            return m_current.get(m_next++);
+        }
+
+        private void descend(Node node)
+        {
+            while(node != null)
+            {
+                m_path.push(node);
+                node = node.m_left;
+            }
+        }
+    }
+
+    /**
+     * the lines of a Script made from the entries under a root. An offset
+     * in one of their trees is in the entry whose bases it falls in, the
+     * line is every newline before that entry and those in it before the
+     * offset. Subtrees whose bases cannot have it are skipped.
+     */
+    private static class EntryLines extends LineTable
+    {
+        private final Node m_root;
+
+        EntryLines(Node l_root)
+        {
+            this.m_root = l_root;
+        }
+
+        @Override
+        int line(int offset)
+        {
+            int line = line(m_root, offset, 1);
+            return line == -1 ? 1 : line;
+        }
+
+        /**
+         * @param line the line the node's text starts on
+         * @return the line of offset, -1 if it is not under node
+         */
+        private static int line(Node node, int offset, int line)
+        {
+            if(node == null || offset < node.m_minBase || offset > node.m_maxEnd) return -1;
+            int found = line(node.m_left, offset, line);
+            if(found != -1) return found;
+
+            line += newlines(node.m_left);
+            Entry entry = node.m_entry;
+            if(offset >= entry.m_base && offset <= entry.m_base + entry.m_length)
+            {
+                return line + entry.newlinesBefore(offset - entry.m_base);
+            }
+            return line(node.m_right, offset, line + entry.m_newlines.length);
+        }
+    }
+
+    /**
+     * copies a tree with every offset moved by m_offsets, the nodes keep
+     * them in final fields
+     */
+    private static class Mover implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt>
+    {
+        private final int m_offsets;
+
+        Mover(int l_offsets)
+        {
+            this.m_offsets = l_offsets;
+        }
+
+        List<Stmt> copy(List<Stmt> statements)
+        {
+            List<Stmt> copies = new ArrayList<>(statements.size());
+            for(Stmt statement : statements)
+            {
+                copies.add(copy(statement));
+            }
+            return copies;
+        }
+
+        private Stmt copy(Stmt stmt)
+        {
+            // the parser leaves null behind for a statement it gave up on
+            if(stmt == null) return null;
+            Stmt copy = stmt.accept(this);
+            copy.line = stmt.line;
+            return copy;
+        }
+
+        private Expr copy(Expr expr)
+        {
+            return expr == null ? null : expr.accept(this);
+        }
+
+        @Override
+        public Stmt visitBlockStmt(Stmt.Block stmt)
+        {
+            return new Stmt.Block(copy(stmt.statements));
+        }
+
+        @Override
+        public Stmt visitExpressionStmt(Stmt.Expression stmt)
+        {
+            return new Stmt.Expression(copy(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitIfStmt(Stmt.If stmt)
+        {
+            return new Stmt.If(copy(stmt.condition), copy(stmt.thenBranch), copy(stmt.elseBranch));
+        }
+
+        @Override
+        public Stmt visitWhileStmt(Stmt.While stmt)
+        {
+            return new Stmt.While(copy(stmt.condition), copy(stmt.body));
+        }
+
+        @Override
+        public Stmt visitPrintStmt(Stmt.Print stmt)
+        {
+            return new Stmt.Print(copy(stmt.expression));
+        }
+
+        @Override
+        public Stmt visitVarStmt(Stmt.Var stmt)
+        {
+            return new Stmt.Var(stmt.name, stmt.offset + m_offsets, copy(stmt.initializer));
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr)
+        {
+            return new Expr.Assign(expr.name, expr.offset + m_offsets, copy(expr.value));
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr)
+        {
+            return new Expr.Binary(copy(expr.left), expr.operator, expr.offset + m_offsets, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr)
+        {
+            return new Expr.Grouping(copy(expr.expression));
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr)
+        {
+            // no line or offset in a literal
+            return expr;
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr)
+        {
+            return new Expr.Logical(copy(expr.left), expr.operator, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr)
+        {
+            return new Expr.Unary(expr.operator, expr.offset + m_offsets, copy(expr.right));
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr)
+        {
+            return new Expr.Variable(expr.name, expr.offset + m_offsets);
+        }
+    }
+}
@@ -1,10 +1,56 @@
 package lox;
+import java.util.Arrays;
 import java.util.List;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
 {
 
-    private Environment environment = new Environment();
+    private final Environment globals;
+    private Environment environment;
+    // where this run's errors and output go, nothing here is shared with
+    // any other Interpreter so each thread can have its own
+    private final ErrorReporter m_errors;
+    private final PrintSink m_out;
+
+    // states of a self specializing Binary or Unary site, every site starts
+    // UNINITIALIZED, picks a state on its first run from the operands it saw
+    // and drops to GENERIC for good as soon as that guess is wrong
+    // runs of a Script on other threads share the sites. Every state checks
+    // its guess before using it, so a racing write only costs speed
+    private static final int UNINITIALIZED = 0;
+    private static final int NUMBERS       = 1;
+    private static final int STRINGS       = 2;
+    private static final int GENERIC       = 3;
+
+    // side channel for evaluateNumber, when the value it found was not a
+    // number m_isNumber is false and the value itself is in m_notNumber
+    private boolean m_isNumber;
+    private Object m_notNumber;
+
+    // a while loop that goes round this many times gets compiled
+    private static final int HOT_LOOP = 1000;
+    // hot loops get compiled to JVM code, off with --no-tiering
+    boolean m_tiering = true;
+
+    // one block frame per nesting level. Nothing in Lox can hold on to a
+    // frame once its block is done (there are no closures), so the next
+    // block at the same level just takes the frame over
+    private Environment[] m_frames = new Environment[8];
+    private int m_blockDepth = 0;
+
+    Interpreter(ErrorReporter l_errors, PrintSink l_out)
+    {
+        this(new Environment(), l_errors, l_out);
+    }
+
+    Interpreter(Environment l_globals, ErrorReporter l_errors, PrintSink l_out)
+    {
+        this.globals = l_globals;
+        this.environment = l_globals;
+        this.m_errors = l_errors;
+        this.m_out = l_out;
+    }
+
     void interpret(List<Stmt> statements)
     {
         try
@@ -16,7 +62,13 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         }
         catch(RuntimeError error)
         {
-            Lox.runtimeError(error);
+            // what the script printed comes out before the error
+            m_out.flush();
+            m_errors.runtimeError(error);
+        }
+        finally
+        {
+            m_out.flush();
         }
     }
 
@@ -30,40 +82,69 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override
     public Object visitBinaryExpr(Expr.Binary expr)
     {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        switch(expr.operator)
+        {
+            case TokenType.MINUS :
+            case TokenType.PLUS :
+            case TokenType.SLASH :
+            case TokenType.STAR :
+            {
+                // the whole arithmetic tree under here runs on doubles
+                // and we only box once, right here at the top
+                double value = evaluateNumber(expr);
+                if(m_isNumber) return value;
+                return m_notNumber;
+            }
+            case TokenType.GREATER :
+            case TokenType.GREATER_EQUAL :
+            case TokenType.LESS :
+            case TokenType.LESS_EQUAL :
+            case TokenType.BANG_EQUAL :
+            case TokenType.EQUAL_EQUAL :
+                return evaluateCondition(expr);
+            default:
+                return binaryOnValues(expr.operator, expr.offset, evaluate(expr.left), evaluate(expr.right));
+        }
+    }
 
-        switch(expr.operator.m_type)
+    /**
+     * The boxed version of every binary operator, used when the operands
+     * are not both numbers. This is where the type errors come from.
+     * ClosureCompiler's nodes fall back on it too.
+     */
+    static Object binaryOnValues(TokenType operator, int offset, Object left, Object right)
+    {
+        switch(operator)
         {
             case TokenType.MINUS :
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(offset, left, right);
                 return (double)left - (double)right;
             case TokenType.PLUS :
                 if(left instanceof Double && right instanceof Double)
                 { return (double)left + (double)right; }
-                if(left instanceof String && right instanceof String)
-                { return (String)left + (String)right; } 
+                if(Rope.isString(left) && Rope.isString(right))
+                { return Rope.concat(left, right, offset); }
                 // if they are neither then we throw the exception
-                throw new RuntimeError(expr.operator, 
+                throw new RuntimeError(offset, 
                 "Operands must be numbers or two strings");
             case TokenType.SLASH :
-                checkNumberOperands(expr.operator, left, right);
-                checkDivByZero(expr.operator,right);
+                checkNumberOperands(offset, left, right);
+                checkDivByZero(offset,right);
                 return (double)left / (double)right;
             case TokenType.STAR :
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(offset, left, right);
                 return (double)left * (double)right;
             case TokenType.GREATER :
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(offset, left, right);
                 return (double)left > (double)right;
             case TokenType.GREATER_EQUAL :
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(offset, left, right);
                 return (double)left >= (double)right;
             case TokenType.LESS :
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(offset, left, right);
                 return (double)left < (double)right;
             case TokenType.LESS_EQUAL :
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(offset, left, right);
                 return (double)left <= (double)right;
             case TokenType.BANG_EQUAL :
                 return !isEqual(left,right);
@@ -80,19 +161,20 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override
     public Object visitUnaryExpr(Expr.Unary expr)
     {
-        Object right = evaluate(expr.right);
-
-        switch(expr.operator.m_type)
+        switch(expr.operator)
         {
             case TokenType.BANG:
-                return !isTruthy(right);
+                return !evaluateCondition(expr.right);
             case TokenType.MINUS:
-                chekcNumberOperand(expr.operator, right);
-                return -(double)right;
-            default : return 0; // for now only later we'll raise an error
+            {
+                // evaluateNumber throws if the operand is not a number
+                double value = evaluateNumber(expr);
+                return value;
+            }
+            default :
+                evaluate(expr.right);
+                return 0; // for now only later we'll raise an error
         }
-
-        //return null; // this is unreachable
     }
 
     @Override
@@ -112,7 +194,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     public Void visitPrintStmt(Stmt.Print stmt)
     {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        m_out.println(value);
         return null;
     }
 
@@ -125,21 +207,59 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.m_lexeme, value);
+        if(stmt.slot == -1)
+        {
+            globals.define(stmt.name, value);
+        }
+        else
+        {
+            environment.slots[stmt.slot] = value;
+        }
         return null;
     }
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr)
     {
-        return environment.get(expr.name);
+        if(expr.depth == -1)
+        {
+            // the cell this site found last time, if it is one of ours
+            Environment.Cell cell = expr.cell;
+            if(cell == null || cell.m_globals != globals)
+            {
+                cell = globals.cell(expr.name);
+                // never defined, get has the error for that
+                if(cell == null) return globals.get(expr.name, expr.offset);
+                expr.cell = cell;
+            }
+            return cell.m_value;
+        }
+        return environment.getAt(expr.depth, expr.slot);
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr)
     {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name,value);
+        if(expr.depth == -1)
+        {
+            Environment.Cell cell = expr.cell;
+            if(cell == null || cell.m_globals != globals)
+            {
+                cell = globals.cell(expr.name);
+                if(cell == null)
+                {
+                    globals.assign(expr.name, expr.offset, value);
+                    return value;
+                }
+                expr.cell = cell;
+            }
+            cell.m_value = value;
+        }
+        else
+        {
+            environment.assignAt(expr.depth, expr.slot, value);
+        }
 
         return value;
     }
@@ -147,14 +267,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override
     public Void visitBlockStmt(Stmt.Block stmt)
     {
-        executeBlock(stmt.statements, new Environment(environment));
+        // the resolver gave a block that declares nothing no scope,
+        // so it runs right in the environment we are in
+        if(stmt.slots == 0)
+        {
+            for(Stmt statement : stmt.statements)
+            {
+                execute(statement);
+            }
+            return null;
+        }
+
+        Environment frame = frame(stmt.slots);
+        m_blockDepth++;
+        try
+        {
+            executeBlock(stmt.statements, frame);
+        }
+        finally
+        {
+            m_blockDepth--;
+        }
         return null;
     }
 
     @Override
     public Void visitIfStmt(Stmt.If stmt)
     {
-        if(isTruthy(evaluate(stmt.condition)))
+        if(evaluateCondition(stmt.condition))
         {
             execute(stmt.thenBranch);
         }
@@ -171,7 +311,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     {
         Object left = evaluate(expr.left);
 
-        if(expr.operator.m_type == TokenType.OR)
+        if(expr.operator == TokenType.OR)
         {
             if(isTruthy(left)) return left;
         }
@@ -186,19 +326,98 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
     @Override
     public Void visitWhileStmt(Stmt.While stmt)
     {
+        // the node is shared by every run of the script, so read it once,
+        // another thread may be compiling the same loop right now
+        CompiledLoop compiled = stmt.compiled;
+        if(compiled != null && compiled.run(environment, globals, m_out)) return null;
+
+        CountedLoop counted = stmt.counted;
+        if(counted != null && runCounted(stmt, counted)) return null;
+
         // this is so anticlimatic
         // we just put a wrapper around the while of java so lame
-        while(isTruthy(evaluate(stmt.condition)))
+        while(evaluateCondition(stmt.condition))
         {
             execute(stmt.body);
+
+            // end of an iteration is the one place where nothing is half
+            // done, so that is where we hand over to the compiled loop
+            // the count is racy across threads, losing one now and then
+            // only means compiling a bit later
+            if(++stmt.iterations == HOT_LOOP && m_tiering)
+            {
+                compiled = CompiledLoop.compile(stmt, environment, globals);
+                if(compiled != null)
+                {
+                    stmt.compiled = compiled;
+                    if(compiled.run(environment, globals, m_out)) return null;
+                }
+            }
         }
         return null;
     }
+
+    /**
+     * Runs a loop CountedLoop recognized with the counter in a double,
+     * no condition or increment to evaluate. Hands over to a compiled loop
+     * when it gets hot the same way the usual path does.
+     * @return false if the counter or the limit is not a number, nothing
+     * but the limit has run then
+     */
+    private boolean runCounted(Stmt.While stmt, CountedLoop counted)
+    {
+        Environment frame = environment.ancestor(counted.m_depth);
+        Object start = frame.slots[counted.m_slot];
+        // throws just like the first check of the condition would have
+        Object limit = evaluate(counted.m_limit);
+        if(!(start instanceof Double) || !(limit instanceof Double)) return false;
+
+        double counter = (double)start;
+        double end = (double)limit;
+        while(counted.test(counter, end))
+        {
+            for(Stmt statement : counted.m_body)
+            {
+                execute(statement);
+            }
+            counter += counted.m_step;
+            if(counted.m_bodyReadsCounter) frame.slots[counted.m_slot] = counter;
+
+            if(++stmt.iterations == HOT_LOOP && m_tiering)
+            {
+                frame.slots[counted.m_slot] = counter;
+                CompiledLoop compiled = CompiledLoop.compile(stmt, environment, globals);
+                if(compiled != null)
+                {
+                    stmt.compiled = compiled;
+                    if(compiled.run(environment, globals, m_out)) return true;
+                }
+            }
+        }
+        frame.slots[counted.m_slot] = counter;
+        return true;
+    }
+
+    /**
+     * prints what a lone expression evaluates to, errors get reported the
+     * same way interpret reports them so every backend agrees
+     */
     public void evaluatePrint(Stmt.Expression stmt)
     {
-        Expr expr = stmt.expression;
-        Object value = evaluate(expr);
-        System.out.println(stringify(value));
+        try
+        {
+            Object value = evaluate(stmt.expression);
+            m_out.println(value);
+        }
+        catch(RuntimeError error)
+        {
+            m_out.flush();
+            m_errors.runtimeError(error);
+        }
+        finally
+        {
+            m_out.flush();
+        }
     }
 
     private Object evaluate(Expr expr)
@@ -206,11 +425,286 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt)
+    /**
+     * Same as evaluate but gives back a primitive double so nested
+     * arithmetic does not box every intermediate result.
+     * If the value was not a number at all, m_isNumber is false and the value
+     * is in m_notNumber, so read both straight after calling this.
+     */
+    private double evaluateNumber(Expr expr)
+    {
+        if(expr instanceof Expr.Binary)
+        {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch(binary.operator)
+            {
+                case TokenType.MINUS :
+                case TokenType.PLUS :
+                case TokenType.SLASH :
+                case TokenType.STAR :
+                    return arithmetic(binary);
+                default:
+            }
+        }
+        else if(expr instanceof Expr.Unary
+            && ((Expr.Unary)expr).operator == TokenType.MINUS)
+        {
+            return negate((Expr.Unary)expr);
+        }
+        else if(expr instanceof Expr.Grouping)
+        {
+            return evaluateNumber(((Expr.Grouping)expr).expression);
+        }
+
+        // literals and variables already hold a Double, unboxing it is free
+        return number(evaluate(expr));
+    }
+
+    private double arithmetic(Expr.Binary expr)
+    {
+        switch(expr.state)
+        {
+            case NUMBERS :
+            {
+                // both sides are evaluated before anything is checked
+                // same order the boxed version always had
+                double left = evaluateNumber(expr.left);
+                boolean leftIsNumber = m_isNumber;
+                Object leftValue = m_notNumber;
+                double right = evaluateNumber(expr.right);
+
+                if(leftIsNumber && m_isNumber)
+                {
+                    switch(expr.operator)
+                    {
+                        case TokenType.MINUS : return left - right;
+                        case TokenType.PLUS  : return left + right;
+                        case TokenType.STAR  : return left * right;
+                        case TokenType.SLASH :
+                            if(right == 0) throw new RuntimeError(expr.offset,"Division by Zero");
+                            return left / right;
+                        default:
+                    }
+                }
+
+                // guard failed, this site is not just numbers after all
+                expr.state = GENERIC;
+                return number(binaryOnValues(expr.operator, expr.offset,
+                    leftIsNumber ? (Object)left : leftValue,
+                    m_isNumber ? (Object)right : m_notNumber));
+            }
+            case STRINGS :
+            {
+                Object left = evaluate(expr.left);
+                Object right = evaluate(expr.right);
+                if(Rope.isString(left) && Rope.isString(right))
+                {
+                    m_isNumber = false;
+                    m_notNumber = Rope.concat(left, right, expr.offset);
+                    return 0;
+                }
+
+                expr.state = GENERIC;
+                return number(binaryOnValues(expr.operator, expr.offset, left, right));
+            }
+            default :
+            {
+                // UNINITIALIZED or GENERIC, both take the boxed path
+                Object left = evaluate(expr.left);
+                Object right = evaluate(expr.right);
+                if(expr.state == UNINITIALIZED) expr.state = specialize(expr, left, right);
+                return number(binaryOnValues(expr.operator, expr.offset, left, right));
+            }
+        }
+    }
+
+    /**
+     * Picks the state a binary site goes into after it has run once.
+     * Only + and the equality operators have anything to gain on strings.
+     */
+    private static int specialize(Expr.Binary expr, Object left, Object right)
+    {
+        if(left instanceof Double && right instanceof Double) return NUMBERS;
+
+        if(Rope.isString(left) && Rope.isString(right))
+        {
+            switch(expr.operator)
+            {
+                case TokenType.PLUS :
+                case TokenType.EQUAL_EQUAL :
+                case TokenType.BANG_EQUAL :
+                    return STRINGS;
+                default:
+            }
+        }
+
+        return GENERIC;
+    }
+
+    private double negate(Expr.Unary expr)
+    {
+        if(expr.state == GENERIC)
+        {
+            Object right = evaluate(expr.right);
+            chekcNumberOperand(expr.offset, right);
+            return -(double)right;
+        }
+
+        // UNINITIALIZED goes straight to NUMBERS, if that is wrong the
+        // guard below fails on this very first run and we go generic
+        expr.state = NUMBERS;
+        double right = evaluateNumber(expr.right);
+        if(!m_isNumber)
+        {
+            expr.state = GENERIC;
+            chekcNumberOperand(expr.offset, m_notNumber);
+        }
+        return -right;
+    }
+
+    private double number(Object value)
+    {
+        if(value instanceof Double)
+        {
+            m_isNumber = true;
+            return (double)value;
+        }
+
+        m_isNumber = false;
+        m_notNumber = value;
+        return 0;
+    }
+
+    /**
+     * Evaluates straight to the truthiness of the expression, comparisons
+     * on numbers never box anything on the way.
+     */
+    private boolean evaluateCondition(Expr expr)
+    {
+        if(expr instanceof Expr.Binary)
+        {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch(binary.operator)
+            {
+                case TokenType.GREATER :
+                case TokenType.GREATER_EQUAL :
+                case TokenType.LESS :
+                case TokenType.LESS_EQUAL :
+                case TokenType.BANG_EQUAL :
+                case TokenType.EQUAL_EQUAL :
+                    return comparison(binary);
+                default:
+            }
+        }
+        else if(expr instanceof Expr.Unary
+            && ((Expr.Unary)expr).operator == TokenType.BANG)
+        {
+            return !evaluateCondition(((Expr.Unary)expr).right);
+        }
+        else if(expr instanceof Expr.Grouping)
+        {
+            return evaluateCondition(((Expr.Grouping)expr).expression);
+        }
+        else if(expr instanceof Expr.Logical)
+        {
+            // and/or give back one of their operands so the truthiness
+            // of the result is just the truthiness of that operand
+            Expr.Logical logical = (Expr.Logical)expr;
+            boolean left = evaluateCondition(logical.left);
+            if(logical.operator == TokenType.OR)
+            {
+                return left || evaluateCondition(logical.right);
+            }
+            return left && evaluateCondition(logical.right);
+        }
+
+        return isTruthy(evaluate(expr));
+    }
+
+    private boolean comparison(Expr.Binary expr)
+    {
+        switch(expr.state)
+        {
+            case NUMBERS :
+            {
+                double left = evaluateNumber(expr.left);
+                boolean leftIsNumber = m_isNumber;
+                Object leftValue = m_notNumber;
+                double right = evaluateNumber(expr.right);
+
+                if(leftIsNumber && m_isNumber)
+                {
+                    switch(expr.operator)
+                    {
+                        case TokenType.GREATER       : return left > right;
+                        case TokenType.GREATER_EQUAL : return left >= right;
+                        case TokenType.LESS          : return left < right;
+                        case TokenType.LESS_EQUAL    : return left <= right;
+                        // Double.compare so NaN and -0.0 act like Double.equals did
+                        case TokenType.BANG_EQUAL    : return Double.compare(left, right) != 0;
+                        case TokenType.EQUAL_EQUAL   : return Double.compare(left, right) == 0;
+                        default:
+                    }
+                }
+
+                expr.state = GENERIC;
+                return (boolean)binaryOnValues(expr.operator, expr.offset,
+                    leftIsNumber ? (Object)left : leftValue,
+                    m_isNumber ? (Object)right : m_notNumber);
+            }
+            case STRINGS :
+            {
+                Object left = evaluate(expr.left);
+                Object right = evaluate(expr.right);
+                if(Rope.isString(left) && Rope.isString(right))
+                {
+                    boolean equal = Rope.equal(left, right);
+                    return expr.operator == TokenType.EQUAL_EQUAL ? equal : !equal;
+                }
+
+                expr.state = GENERIC;
+                return (boolean)binaryOnValues(expr.operator, expr.offset, left, right);
+            }
+            default :
+            {
+                Object left = evaluate(expr.left);
+                Object right = evaluate(expr.right);
+                if(expr.state == UNINITIALIZED) expr.state = specialize(expr, left, right);
+                return (boolean)binaryOnValues(expr.operator, expr.offset, left, right);
+            }
+        }
+    }
+
+    // ProfilingInterpreter hooks in here
+    void execute(Stmt stmt)
     {
         stmt.accept(this);
     }
 
+    /**
+     * @return a frame of at least slots enclosed by the current environment,
+     * the one last used at this depth if it fits
+     */
+    private Environment frame(int slots)
+    {
+        if(m_blockDepth == m_frames.length) m_frames = Arrays.copyOf(m_frames, m_blockDepth * 2);
+
+        Environment frame = m_frames[m_blockDepth];
+        // a frame made under some other enclosing one is no good to us
+        if(frame == null || frame.enclosing != environment || frame.slots.length < slots)
+        {
+            frame = new Environment(environment, slots);
+            m_frames[m_blockDepth] = frame;
+        }
+        else
+        {
+            // no block can read a slot before its var has run, this is
+            // just so old values are not kept alive
+            Arrays.fill(frame.slots, null);
+        }
+        return frame;
+    }
+
     void executeBlock(List<Stmt> statements, Environment environment)
     {
         Environment previous = this.environment;
@@ -228,7 +722,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
             this.environment = previous;
         }
     }
-    private boolean isTruthy(Object object)
+    static boolean isTruthy(Object object)
     {
         // null and false are false and everything else it true
         if(object  == null) return false;
@@ -236,37 +730,38 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>
         return true;
     }
 
-    private boolean isEqual(Object a, Object b)
+    static boolean isEqual(Object a, Object b)
     {
         if(a == null && b == null) return true;
         if(a == null) return false;
+        if(Rope.isString(a) && Rope.isString(b)) return Rope.equal(a, b);
 
         return a.equals(b);
     }
 
-    private void chekcNumberOperand(Token operator, Object operand)
+    static void chekcNumberOperand(int offset, Object operand)
     {
         if(operand instanceof Double) return;
-        throw new RuntimeError(operator,"Operand must be a number.");
+        throw new RuntimeError(offset,"Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right)
+    private static void checkNumberOperands(int offset, Object left, Object right)
     {
         if(left instanceof Double && right instanceof Double) return;
 
-        throw new RuntimeError(operator, "Operands must be numbers");
+        throw new RuntimeError(offset, "Operands must be numbers");
     }
 
-    private void checkDivByZero(Token operator, Object right)
+    private static void checkDivByZero(int offset, Object right)
     {
         if((Double)right != 0) return;
 
-        throw new RuntimeError(operator,"Division by Zero");
+        throw new RuntimeError(offset,"Division by Zero");
 
     }
-    private String stringify(Object object)
+    static String stringify(Object object)
     {
-        if(object == "null") return "nil";
+        if(object == null) return "nil";
 
         if(object instanceof Double)
         {
@@ -0,0 +1,998 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static lox.ClassEmitter.*;
+
+/**
+ * Turns the resolved tree into a JVM class for JvmRuntime to load.
+ * Globals become static Object fields, locals become JVM locals. A local
+ * that is only ever given numbers is kept as a raw double, so arithmetic
+ * and comparisons on it are plain dadd/dcmpg with nothing boxed.
+ * Everything that can fail goes through a JvmRuntime helper which gets
+ * the source offset to report.
+ *
+ * It can also compile just one hot loop for the Interpreter. Then every
+ * variable from outside the loop is carried: its value comes in through
+ * an Object[] when the loop starts and goes back out when it ends or
+ * throws, and in between it is a plain JVM local like any other.
+ */
+class JvmCompiler
+{
+    static final String RUN = "run";
+    // generated code prints to the PrintSink it is handed, not System.out
+    static final String RUN_DESCRIPTOR = "(Llox/PrintSink;)V";
+    static final String LOOP_DESCRIPTOR = "([Ljava/lang/Object;Llox/PrintSink;)V";
+
+    private static final String CLASS = "lox/LoxScript";
+    private static final String RUNTIME = "lox/JvmRuntime";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String PRINT_SINK = "Llox/PrintSink;";
+    private static final String BOOLEAN = "java/lang/Boolean";
+
+    // top level statements are split over methods about this big so a
+    // long script never runs into the 64k limit on a method
+    private static final int CHUNK_BYTES = 8000;
+    // branch offsets are signed 16 bit, keep methods where they always fit
+    private static final int MAX_METHOD_BYTES = 32767;
+
+    /** thrown when the script will not fit in one class */
+    private static class TooLarge extends RuntimeException
+    {
+        TooLarge()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    private final ClassEmitter m_class = new ClassEmitter(CLASS);
+    private ClassEmitter.Code m_code;
+    private int m_nextLocal;
+    // the local holding the PrintSink
+    private int m_outLocal;
+
+    // names of every global the script touches, each one is a field
+    final Set<String> m_globals = new LinkedHashSet<>();
+
+    // which slots of each block only ever hold numbers
+    private final Map<Stmt.Block, boolean[]> m_numberSlots = new IdentityHashMap<>();
+    // enclosing blocks, innermost last
+    private final List<boolean[]> m_numeric = new ArrayList<>();
+    private final List<int[]> m_locals = new ArrayList<>();
+    private boolean m_changed;
+
+    // only set when compiling a single loop
+    private Map<String, Carried> m_carried;
+    private Environment m_environment;
+    private Environment m_globalEnvironment;
+    private boolean m_missingGlobal;
+
+    /**
+     * a variable from outside a compiled loop
+     */
+    static class Carried
+    {
+        final int m_distance; // environments up from the loop, -1 for a global
+        final int m_slot;
+        final String m_name;
+        // the value was a number when we compiled and the loop only ever
+        // stores numbers in it, so it is a double inside
+        boolean m_numeric;
+        int m_local;
+
+        Carried(int l_distance, int l_slot, String l_name, boolean l_numeric)
+        {
+            this.m_distance = l_distance;
+            this.m_slot = l_slot;
+            this.m_name = l_name;
+            this.m_numeric = l_numeric;
+        }
+    }
+
+    static String field(String name)
+    {
+        return "g_" + name;
+    }
+
+    /**
+     * @return the class file, or null if the script is too big for one class
+     */
+    byte[] compile(List<Stmt> statements)
+    {
+        do
+        {
+            m_changed = false;
+            for(Stmt statement : statements)
+            {
+                analyze(statement);
+            }
+        }
+        while(m_changed);
+
+        try
+        {
+            List<String> chunks = new ArrayList<>();
+            startChunk();
+            for(Stmt statement : statements)
+            {
+                if(m_code.m_length > CHUNK_BYTES)
+                {
+                    chunks.add(finishChunk(chunks.size()));
+                    startChunk();
+                }
+                statement(statement);
+            }
+            chunks.add(finishChunk(chunks.size()));
+
+            m_code = new ClassEmitter.Code();
+            for(String chunk : chunks)
+            {
+                m_code.local(ALOAD, 0, 1);
+                m_code.op2(INVOKESTATIC, m_class.methodRef(CLASS, chunk, RUN_DESCRIPTOR), -1);
+            }
+            m_code.op(RETURN, 0);
+            if(m_code.m_length > MAX_METHOD_BYTES) throw new TooLarge();
+            m_code.m_maxLocals = 1;
+            m_class.addMethod(ACC_PUBLIC | ACC_STATIC, RUN, RUN_DESCRIPTOR, m_code);
+
+            for(String name : m_globals)
+            {
+                m_class.addField(ACC_PUBLIC | ACC_STATIC, field(name), OBJECT);
+            }
+            if(!m_class.poolHasRoom()) throw new TooLarge();
+            return m_class.toBytes();
+        }
+        catch(TooLarge error)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Compiles a loop that is running right now in environment. The values
+     * the variables have at this point are the profile that decides which
+     * carried ones are doubles.
+     * @return the class file, or null if the loop cannot be compiled
+     */
+    byte[] compileLoop(Stmt.While loop, Environment environment, Environment globals)
+    {
+        m_carried = new LinkedHashMap<>();
+        m_environment = environment;
+        m_globalEnvironment = globals;
+
+        do
+        {
+            m_changed = false;
+            analyze(loop);
+        }
+        while(m_changed);
+        // a global that is not there yet can only be a runtime error,
+        // leave that one to the interpreter
+        if(m_missingGlobal) return null;
+
+        try
+        {
+            m_code = new ClassEmitter.Code();
+            // the Object[] with the carried values, then the PrintSink
+            m_outLocal = 1;
+            m_nextLocal = 2;
+            int index = 0;
+            for(Carried carried : m_carried.values())
+            {
+                carried.m_local = m_nextLocal;
+                m_nextLocal += carried.m_numeric ? 2 : 1;
+                m_code.local(ALOAD, 0, 1);
+                m_code.integer(index++);
+                m_code.op(AALOAD, -1);
+                if(carried.m_numeric)
+                {
+                    // the caller checked it is a Double
+                    m_code.op2(CHECKCAST, m_class.classRef("java/lang/Double"), 0);
+                    m_code.op2(INVOKEVIRTUAL,
+                        m_class.methodRef("java/lang/Double", "doubleValue", "()D"), 1);
+                    m_code.local(DSTORE, carried.m_local, -2);
+                }
+                else
+                {
+                    m_code.local(ASTORE, carried.m_local, -1);
+                }
+            }
+
+            Label start = new Label();
+            Label end = new Label();
+            m_code.mark(start);
+            statement(loop);
+            m_code.mark(end);
+            storeCarried();
+            m_code.op(RETURN, 0);
+
+            // on the way out of an error the values still go back
+            int exception = m_nextLocal++;
+            m_code.handler(start, end, new Label());
+            m_code.local(ASTORE, exception, -1);
+            storeCarried();
+            m_code.local(ALOAD, exception, 1);
+            m_code.op(ATHROW, -1);
+
+            if(m_code.m_length > MAX_METHOD_BYTES || m_nextLocal > 0xffff) throw new TooLarge();
+            m_code.m_maxLocals = m_nextLocal;
+            m_class.addMethod(ACC_PUBLIC | ACC_STATIC, RUN, LOOP_DESCRIPTOR, m_code);
+            if(!m_class.poolHasRoom()) throw new TooLarge();
+            return m_class.toBytes();
+        }
+        catch(TooLarge error)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * the carried variables in the order of the Object[] the loop takes
+     */
+    List<Carried> carried()
+    {
+        return new ArrayList<>(m_carried.values());
+    }
+
+    private void storeCarried()
+    {
+        int index = 0;
+        for(Carried carried : m_carried.values())
+        {
+            m_code.local(ALOAD, 0, 1);
+            m_code.integer(index++);
+            if(carried.m_numeric)
+            {
+                m_code.local(DLOAD, carried.m_local, 2);
+                m_code.op2(INVOKESTATIC,
+                    m_class.methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"), -1);
+            }
+            else
+            {
+                m_code.local(ALOAD, carried.m_local, 1);
+            }
+            m_code.op(AASTORE, -3);
+        }
+    }
+
+    private void startChunk()
+    {
+        m_code = new ClassEmitter.Code();
+        m_outLocal = 0;
+        m_nextLocal = 1;
+    }
+
+    private String finishChunk(int index)
+    {
+        m_code.op(RETURN, 0);
+        if(m_code.m_length > MAX_METHOD_BYTES || m_nextLocal > 0xffff) throw new TooLarge();
+        m_code.m_maxLocals = m_nextLocal;
+
+        String name = "s" + index;
+        m_class.addMethod(ACC_STATIC, name, RUN_DESCRIPTOR, m_code);
+        return name;
+    }
+
+    // ---- finding the locals that only hold numbers ----
+    // every slot starts out as a number and gets knocked out by any store
+    // that might not be one, until nothing changes
+
+    private void analyze(Stmt stmt)
+    {
+        if(stmt instanceof Stmt.Block && ((Stmt.Block)stmt).slots == 0)
+        {
+            // no scope, same as the resolver
+            for(Stmt statement : ((Stmt.Block)stmt).statements)
+            {
+                analyze(statement);
+            }
+        }
+        else if(stmt instanceof Stmt.Block)
+        {
+            Stmt.Block block = (Stmt.Block)stmt;
+            boolean[] numeric = m_numberSlots.get(block);
+            if(numeric == null)
+            {
+                numeric = new boolean[block.slots];
+                Arrays.fill(numeric, true);
+                m_numberSlots.put(block, numeric);
+            }
+            m_numeric.add(numeric);
+            for(Stmt statement : block.statements)
+            {
+                analyze(statement);
+            }
+            m_numeric.remove(m_numeric.size() - 1);
+        }
+        else if(stmt instanceof Stmt.Var)
+        {
+            Stmt.Var var = (Stmt.Var)stmt;
+            if(var.initializer != null) analyze(var.initializer);
+            if(var.slot != -1 && (var.initializer == null || !isNumber(var.initializer)))
+            {
+                notNumber(0, var.slot, var.name);
+            }
+        }
+        else if(stmt instanceof Stmt.Expression)
+        {
+            analyze(((Stmt.Expression)stmt).expression);
+        }
+        else if(stmt instanceof Stmt.Print)
+        {
+            analyze(((Stmt.Print)stmt).expression);
+        }
+        else if(stmt instanceof Stmt.If)
+        {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            analyze(ifStmt.condition);
+            analyze(ifStmt.thenBranch);
+            if(ifStmt.elseBranch != null) analyze(ifStmt.elseBranch);
+        }
+        else if(stmt instanceof Stmt.While)
+        {
+            Stmt.While whileStmt = (Stmt.While)stmt;
+            analyze(whileStmt.condition);
+            analyze(whileStmt.body);
+        }
+    }
+
+    private void analyze(Expr expr)
+    {
+        expr = unhoisted(expr);
+        if(expr instanceof Expr.Assign)
+        {
+            Expr.Assign assign = (Expr.Assign)expr;
+            analyze(assign.value);
+            carry(assign.depth, assign.slot, assign.name);
+            if(!isNumber(assign.value)) notNumber(assign.depth, assign.slot, assign.name);
+        }
+        else if(expr instanceof Expr.Variable)
+        {
+            Expr.Variable variable = (Expr.Variable)expr;
+            carry(variable.depth, variable.slot, variable.name);
+        }
+        else if(expr instanceof Expr.Binary)
+        {
+            analyze(((Expr.Binary)expr).left);
+            analyze(((Expr.Binary)expr).right);
+        }
+        else if(expr instanceof Expr.Logical)
+        {
+            analyze(((Expr.Logical)expr).left);
+            analyze(((Expr.Logical)expr).right);
+        }
+        else if(expr instanceof Expr.Unary)
+        {
+            analyze(((Expr.Unary)expr).right);
+        }
+        else if(expr instanceof Expr.Grouping)
+        {
+            analyze(((Expr.Grouping)expr).expression);
+        }
+    }
+
+    private void notNumber(int depth, int slot, String name)
+    {
+        Carried carried = carried(depth, slot, name);
+        if(carried != null)
+        {
+            if(carried.m_numeric)
+            {
+                carried.m_numeric = false;
+                m_changed = true;
+            }
+            return;
+        }
+        // globals of a whole script are Object fields, nothing to do
+        if(depth == -1) return;
+
+        boolean[] numeric = m_numeric.get(m_numeric.size() - 1 - depth);
+        if(numeric[slot])
+        {
+            numeric[slot] = false;
+            m_changed = true;
+        }
+    }
+
+    private boolean isNumberSlot(int depth, int slot, String name)
+    {
+        Carried carried = carried(depth, slot, name);
+        if(carried != null) return carried.m_numeric;
+        if(depth == -1) return false;
+        return m_numeric.get(m_numeric.size() - 1 - depth)[slot];
+    }
+
+    /**
+     * @return the carried variable for a name resolved to depth and slot,
+     * null if it is not from outside the loop being compiled
+     */
+    private Carried carried(int depth, int slot, String name)
+    {
+        if(m_carried == null || (depth != -1 && depth < m_numeric.size())) return null;
+        return m_carried.get(depth == -1 ? "g " + name : (depth - m_numeric.size()) + " " + slot);
+    }
+
+    /**
+     * starts carrying a variable from outside the loop the first time we see it
+     */
+    private void carry(int depth, int slot, String name)
+    {
+        if(m_carried == null || (depth != -1 && depth < m_numeric.size())) return;
+
+        String key = depth == -1 ? "g " + name : (depth - m_numeric.size()) + " " + slot;
+        if(m_carried.containsKey(key)) return;
+
+        Object value;
+        int distance = -1;
+        if(depth == -1)
+        {
+            if(!m_globalEnvironment.has(name))
+            {
+                m_missingGlobal = true;
+                return;
+            }
+            value = m_globalEnvironment.get(name);
+        }
+        else
+        {
+            distance = depth - m_numeric.size();
+            value = m_environment.getAt(distance, slot);
+        }
+        m_carried.put(key, new Carried(distance, slot, name, value instanceof Double));
+        m_changed = true;
+    }
+
+    /**
+     * what CodeMotion hoisted gets worked out every time again, so it
+     * stays a double and the JIT takes it out of the loop itself
+     */
+    private static Expr unhoisted(Expr expr)
+    {
+        Expr hoisted = CodeMotion.hoisted(expr);
+        return hoisted != null ? hoisted : expr;
+    }
+
+    /**
+     * @return true if the expression always gives a number when it does
+     * not throw, so it can be left on the stack as a double
+     */
+    private boolean isNumber(Expr expr)
+    {
+        expr = unhoisted(expr);
+        if(expr instanceof Expr.Literal)
+        {
+            return ((Expr.Literal)expr).value instanceof Double;
+        }
+        if(expr instanceof Expr.Grouping)
+        {
+            return isNumber(((Expr.Grouping)expr).expression);
+        }
+        if(expr instanceof Expr.Variable)
+        {
+            Expr.Variable variable = (Expr.Variable)expr;
+            return isNumberSlot(variable.depth, variable.slot, variable.name);
+        }
+        if(expr instanceof Expr.Assign)
+        {
+            Expr.Assign assign = (Expr.Assign)expr;
+            return isNumberSlot(assign.depth, assign.slot, assign.name);
+        }
+        if(expr instanceof Expr.Unary)
+        {
+            return ((Expr.Unary)expr).operator == TokenType.MINUS;
+        }
+        if(expr instanceof Expr.Binary)
+        {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch(binary.operator)
+            {
+                case TokenType.MINUS :
+                case TokenType.STAR :
+                case TokenType.SLASH :
+                    // these throw on anything else
+                    return true;
+                case TokenType.PLUS :
+                    return isNumber(binary.left) && isNumber(binary.right);
+                default :
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    // ---- statements ----
+
+    private void statement(Stmt stmt)
+    {
+        if(stmt instanceof Stmt.Block)
+        {
+            block((Stmt.Block)stmt);
+        }
+        else if(stmt instanceof Stmt.Var)
+        {
+            var((Stmt.Var)stmt);
+        }
+        else if(stmt instanceof Stmt.Expression)
+        {
+            Expr expr = ((Stmt.Expression)stmt).expression;
+            if(isNumber(expr))
+            {
+                number(expr);
+                m_code.op(POP2, -2);
+            }
+            else
+            {
+                value(expr);
+                m_code.op(POP, -1);
+            }
+        }
+        else if(stmt instanceof Stmt.Print)
+        {
+            value(((Stmt.Print)stmt).expression);
+            m_code.local(ALOAD, m_outLocal, 1);
+            runtime("print", "(" + OBJECT + PRINT_SINK + ")V", -2);
+        }
+        else if(stmt instanceof Stmt.If)
+        {
+            Stmt.If ifStmt = (Stmt.If)stmt;
+            Label elseLabel = new Label();
+            branch(ifStmt.condition, elseLabel, false);
+            statement(ifStmt.thenBranch);
+            if(ifStmt.elseBranch != null)
+            {
+                Label end = new Label();
+                m_code.jump(GOTO, end, 0);
+                m_code.mark(elseLabel);
+                statement(ifStmt.elseBranch);
+                m_code.mark(end);
+            }
+            else
+            {
+                m_code.mark(elseLabel);
+            }
+        }
+        else if(stmt instanceof Stmt.While)
+        {
+            Stmt.While whileStmt = (Stmt.While)stmt;
+            Label top = new Label();
+            Label exit = new Label();
+            m_code.mark(top);
+            branch(whileStmt.condition, exit, false);
+            statement(whileStmt.body);
+            m_code.jump(GOTO, top, 0);
+            m_code.mark(exit);
+        }
+    }
+
+    private void block(Stmt.Block block)
+    {
+        if(block.slots == 0)
+        {
+            for(Stmt statement : block.statements)
+            {
+                statement(statement);
+            }
+            return;
+        }
+
+        boolean[] numeric = m_numberSlots.get(block);
+        // every block gets its own JVM locals, a slot that is a double in
+        // one block may well be an Object in the next
+        int[] locals = new int[block.slots];
+        for(int i = 0; i < block.slots; i++)
+        {
+            locals[i] = m_nextLocal;
+            m_nextLocal += numeric[i] ? 2 : 1;
+        }
+
+        m_numeric.add(numeric);
+        m_locals.add(locals);
+        for(Stmt statement : block.statements)
+        {
+            statement(statement);
+        }
+        m_locals.remove(m_locals.size() - 1);
+        m_numeric.remove(m_numeric.size() - 1);
+    }
+
+    private void var(Stmt.Var stmt)
+    {
+        if(stmt.slot == -1)
+        {
+            // only ever at the top level, so never inside a compiled loop
+            m_globals.add(stmt.name);
+            if(stmt.initializer != null) value(stmt.initializer);
+            else m_code.op(ACONST_NULL, 1);
+            m_code.op2(PUTSTATIC, global(stmt.name), -1);
+        }
+        else if(isNumberSlot(0, stmt.slot, stmt.name))
+        {
+            number(stmt.initializer);
+            m_code.local(DSTORE, local(0, stmt.slot, stmt.name), -2);
+        }
+        else
+        {
+            if(stmt.initializer != null) value(stmt.initializer);
+            else m_code.op(ACONST_NULL, 1);
+            m_code.local(ASTORE, local(0, stmt.slot, stmt.name), -1);
+        }
+    }
+
+    // ---- expressions ----
+
+    /**
+     * leaves the value of expr on the stack as an Object
+     */
+    private void value(Expr expr)
+    {
+        expr = unhoisted(expr);
+        if(isNumber(expr))
+        {
+            number(expr);
+            m_code.op2(INVOKESTATIC,
+                m_class.methodRef("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;"), -1);
+        }
+        else if(expr instanceof Expr.Literal)
+        {
+            Object value = ((Expr.Literal)expr).value;
+            if(value == null)
+            {
+                m_code.op(ACONST_NULL, 1);
+            }
+            else if(value instanceof Boolean)
+            {
+                m_code.op2(GETSTATIC, m_class.fieldRef(BOOLEAN,
+                    (boolean)value ? "TRUE" : "FALSE", "L" + BOOLEAN + ";"), 1);
+            }
+            else
+            {
+                ldc(m_class.string((String)value));
+            }
+        }
+        else if(expr instanceof Expr.Grouping)
+        {
+            value(((Expr.Grouping)expr).expression);
+        }
+        else if(expr instanceof Expr.Variable)
+        {
+            Expr.Variable variable = (Expr.Variable)expr;
+            if(isField(variable.depth))
+            {
+                String name = variable.name;
+                m_globals.add(name);
+                m_code.op2(GETSTATIC, global(name), 1);
+                ldc(m_class.string(name));
+                offset(variable.offset);
+                runtime("checkDefined", "(" + OBJECT + "Ljava/lang/String;I)" + OBJECT, -2);
+            }
+            else
+            {
+                m_code.local(ALOAD, local(variable.depth, variable.slot, variable.name), 1);
+            }
+        }
+        else if(expr instanceof Expr.Assign)
+        {
+            Expr.Assign assign = (Expr.Assign)expr;
+            value(assign.value);
+            if(isField(assign.depth))
+            {
+                String name = assign.name;
+                m_globals.add(name);
+                m_code.op2(GETSTATIC, global(name), 1);
+                ldc(m_class.string(name));
+                offset(assign.offset);
+                runtime("checkAssignable", "(" + OBJECT + "Ljava/lang/String;I)V", -3);
+                m_code.op(DUP, 1);
+                m_code.op2(PUTSTATIC, global(name), -1);
+            }
+            else
+            {
+                m_code.op(DUP, 1);
+                m_code.local(ASTORE, local(assign.depth, assign.slot, assign.name), -1);
+            }
+        }
+        else if(expr instanceof Expr.Logical)
+        {
+            // and/or give back one of their operands, not a boolean
+            Expr.Logical logical = (Expr.Logical)expr;
+            Label end = new Label();
+            value(logical.left);
+            m_code.op(DUP, 1);
+            runtime("isTruthy", "(" + OBJECT + ")Z", 0);
+            m_code.jump(logical.operator == TokenType.OR ? IFNE : IFEQ, end, -1);
+            m_code.op(POP, -1);
+            value(logical.right);
+            m_code.mark(end);
+        }
+        else if(expr instanceof Expr.Binary
+            && ((Expr.Binary)expr).operator == TokenType.PLUS)
+        {
+            // not both numbers as far as we know, could be strings
+            Expr.Binary binary = (Expr.Binary)expr;
+            value(binary.left);
+            value(binary.right);
+            offset(binary.offset);
+            runtime("add", "(" + OBJECT + OBJECT + "I)" + OBJECT, -2);
+        }
+        else
+        {
+            // comparisons and !, branch and pick a Boolean
+            Label falseLabel = new Label();
+            Label end = new Label();
+            branch(expr, falseLabel, false);
+            m_code.op2(GETSTATIC, m_class.fieldRef(BOOLEAN, "TRUE", "L" + BOOLEAN + ";"), 1);
+            m_code.jump(GOTO, end, 0);
+            m_code.mark(falseLabel);
+            m_code.op2(GETSTATIC, m_class.fieldRef(BOOLEAN, "FALSE", "L" + BOOLEAN + ";"), 1);
+            m_code.mark(end);
+        }
+    }
+
+    /**
+     * leaves the value of expr on the stack as a double,
+     * only for expressions isNumber says yes to
+     */
+    private void number(Expr expr)
+    {
+        expr = unhoisted(expr);
+        if(expr instanceof Expr.Literal)
+        {
+            double value = (double)((Expr.Literal)expr).value;
+            if(Double.doubleToRawLongBits(value) == 0) m_code.op(DCONST_0, 2);
+            else m_code.op2(LDC2_W, m_class.doubleConstant(value), 2);
+        }
+        else if(expr instanceof Expr.Grouping)
+        {
+            number(((Expr.Grouping)expr).expression);
+        }
+        else if(expr instanceof Expr.Variable)
+        {
+            Expr.Variable variable = (Expr.Variable)expr;
+            m_code.local(DLOAD, local(variable.depth, variable.slot, variable.name), 2);
+        }
+        else if(expr instanceof Expr.Assign)
+        {
+            Expr.Assign assign = (Expr.Assign)expr;
+            number(assign.value);
+            m_code.op(DUP2, 2);
+            m_code.local(DSTORE, local(assign.depth, assign.slot, assign.name), -2);
+        }
+        else if(expr instanceof Expr.Unary)
+        {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if(isNumber(unary.right))
+            {
+                number(unary.right);
+                m_code.op(DNEG, 0);
+            }
+            else
+            {
+                value(unary.right);
+                offset(unary.offset);
+                runtime("negate", "(" + OBJECT + "I)D", 0);
+            }
+        }
+        else
+        {
+            Expr.Binary binary = (Expr.Binary)expr;
+            TokenType type = binary.operator;
+            if(isNumber(binary.left) && isNumber(binary.right))
+            {
+                number(binary.left);
+                number(binary.right);
+                switch(type)
+                {
+                    case TokenType.PLUS  : m_code.op(DADD, -2); break;
+                    case TokenType.MINUS : m_code.op(DSUB, -2); break;
+                    case TokenType.STAR  : m_code.op(DMUL, -2); break;
+                    default :
+                        offset(binary.offset);
+                        runtime("checkDivisor", "(DI)D", -1);
+                        m_code.op(DDIV, -2);
+                }
+            }
+            else
+            {
+                // both sides first, then the checks, same as the interpreter
+                value(binary.left);
+                value(binary.right);
+                offset(binary.offset);
+                String helper;
+                switch(type)
+                {
+                    case TokenType.MINUS : helper = "subtract"; break;
+                    case TokenType.STAR  : helper = "multiply"; break;
+                    default              : helper = "divide";
+                }
+                runtime(helper, "(" + OBJECT + OBJECT + "I)D", -1);
+            }
+        }
+    }
+
+    /**
+     * Jumps to target if the truthiness of expr is jumpIf, falls through
+     * otherwise. Conditions never make a Boolean on the way.
+     */
+    private void branch(Expr expr, Label target, boolean jumpIf)
+    {
+        expr = unhoisted(expr);
+        if(expr instanceof Expr.Grouping)
+        {
+            branch(((Expr.Grouping)expr).expression, target, jumpIf);
+        }
+        else if(expr instanceof Expr.Unary
+            && ((Expr.Unary)expr).operator == TokenType.BANG)
+        {
+            branch(((Expr.Unary)expr).right, target, !jumpIf);
+        }
+        else if(expr instanceof Expr.Logical)
+        {
+            Expr.Logical logical = (Expr.Logical)expr;
+            boolean or = logical.operator == TokenType.OR;
+            if(or == jumpIf)
+            {
+                // either side alone decides it
+                branch(logical.left, target, jumpIf);
+                branch(logical.right, target, jumpIf);
+            }
+            else
+            {
+                Label skip = new Label();
+                branch(logical.left, skip, !jumpIf);
+                branch(logical.right, target, jumpIf);
+                m_code.mark(skip);
+            }
+        }
+        else if(expr instanceof Expr.Literal)
+        {
+            if(Interpreter.isTruthy(((Expr.Literal)expr).value) == jumpIf)
+            {
+                m_code.jump(GOTO, target, 0);
+            }
+        }
+        else if(expr instanceof Expr.Binary && isComparison((Expr.Binary)expr))
+        {
+            comparison((Expr.Binary)expr, target, jumpIf);
+        }
+        else if(isNumber(expr))
+        {
+            // numbers are always true, still has to run for its errors
+            number(expr);
+            m_code.op(POP2, -2);
+            if(jumpIf) m_code.jump(GOTO, target, 0);
+        }
+        else
+        {
+            value(expr);
+            runtime("isTruthy", "(" + OBJECT + ")Z", 0);
+            m_code.jump(jumpIf ? IFNE : IFEQ, target, -1);
+        }
+    }
+
+    private static boolean isComparison(Expr.Binary expr)
+    {
+        switch(expr.operator)
+        {
+            case TokenType.GREATER :
+            case TokenType.GREATER_EQUAL :
+            case TokenType.LESS :
+            case TokenType.LESS_EQUAL :
+            case TokenType.BANG_EQUAL :
+            case TokenType.EQUAL_EQUAL :
+                return true;
+            default :
+                return false;
+        }
+    }
+
+    private void comparison(Expr.Binary expr, Label target, boolean jumpIf)
+    {
+        TokenType type = expr.operator;
+        boolean equality = type == TokenType.EQUAL_EQUAL || type == TokenType.BANG_EQUAL;
+
+        if(isNumber(expr.left) && isNumber(expr.right))
+        {
+            number(expr.left);
+            number(expr.right);
+            if(equality)
+            {
+                // Double.compare so NaN and -0.0 act like Double.equals
+                m_code.op2(INVOKESTATIC, m_class.methodRef("java/lang/Double", "compare", "(DD)I"), -3);
+                boolean jumpIfEqual = (type == TokenType.EQUAL_EQUAL) == jumpIf;
+                m_code.jump(jumpIfEqual ? IFEQ : IFNE, target, -1);
+                return;
+            }
+
+            // dcmpg gives 1 on NaN and dcmpl gives -1, pick the one that
+            // makes every comparison with NaN false
+            switch(type)
+            {
+                case TokenType.LESS :
+                    m_code.op(DCMPG, -3);
+                    m_code.jump(jumpIf ? IFLT : IFGE, target, -1);
+                    break;
+                case TokenType.LESS_EQUAL :
+                    m_code.op(DCMPG, -3);
+                    m_code.jump(jumpIf ? IFLE : IFGT, target, -1);
+                    break;
+                case TokenType.GREATER :
+                    m_code.op(DCMPL, -3);
+                    m_code.jump(jumpIf ? IFGT : IFLE, target, -1);
+                    break;
+                default :
+                    m_code.op(DCMPL, -3);
+                    m_code.jump(jumpIf ? IFGE : IFLT, target, -1);
+            }
+            return;
+        }
+
+        value(expr.left);
+        value(expr.right);
+        if(equality)
+        {
+            runtime("isEqual", "(" + OBJECT + OBJECT + ")Z", -1);
+            boolean jumpIfEqual = (type == TokenType.EQUAL_EQUAL) == jumpIf;
+            m_code.jump(jumpIfEqual ? IFNE : IFEQ, target, -1);
+            return;
+        }
+
+        offset(expr.offset);
+        String helper;
+        switch(type)
+        {
+            case TokenType.LESS       : helper = "less"; break;
+            case TokenType.LESS_EQUAL : helper = "lessEqual"; break;
+            case TokenType.GREATER    : helper = "greater"; break;
+            default                   : helper = "greaterEqual";
+        }
+        runtime(helper, "(" + OBJECT + OBJECT + "I)Z", -2);
+        m_code.jump(jumpIf ? IFNE : IFEQ, target, -1);
+    }
+
+    // ---- small helpers ----
+
+    private int local(int depth, int slot, String name)
+    {
+        Carried carried = carried(depth, slot, name);
+        if(carried != null) return carried.m_local;
+        return m_locals.get(m_locals.size() - 1 - depth)[slot];
+    }
+
+    /**
+     * globals are fields when compiling a whole script, in a loop
+     * they are carried like everything else from outside
+     */
+    private boolean isField(int depth)
+    {
+        return depth == -1 && m_carried == null;
+    }
+
+    private int global(String name)
+    {
+        return m_class.fieldRef(CLASS, field(name), OBJECT);
+    }
+
+    private void runtime(String name, String descriptor, int stackChange)
+    {
+        m_code.op2(INVOKESTATIC, m_class.methodRef(RUNTIME, name, descriptor), stackChange);
+    }
+
+    private void ldc(int index)
+    {
+        if(index > 255) m_code.op2(LDC_W, index, 1);
+        else m_code.op1(LDC, index, 1);
+    }
+
+    private void offset(int offset)
+    {
+        if(offset <= Short.MAX_VALUE) m_code.op2(SIPUSH, offset, 1);
+        else ldc(m_class.integer(offset));
+    }
+}
@@ -0,0 +1,217 @@
+package lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs scripts by turning them into a JVM class with JvmCompiler and
+ * loading that as a hidden class, so the JIT compiles Lox like any other
+ * Java code. The static methods here are what the generated code calls
+ * for anything it does not do inline, they throw the same RuntimeErrors
+ * the Interpreter does.
+ */
+class JvmRuntime
+{
+    // what a global field holds before its var statement has run
+    static final Object UNDEFINED = new Object();
+
+    // globals outlive a single class so the REPL keeps its variables
+    private final Map<String, Object> m_globals = new HashMap<>();
+    private final ErrorReporter m_errors;
+    private final PrintSink m_out;
+
+    JvmRuntime(ErrorReporter l_errors, PrintSink l_out)
+    {
+        this.m_errors = l_errors;
+        this.m_out = l_out;
+    }
+
+    /**
+     * @return false if the script was too big to fit in one class,
+     * nothing has run in that case
+     */
+    boolean interpret(List<Stmt> statements)
+    {
+        JvmCompiler compiler = new JvmCompiler();
+        byte[] bytes = compiler.compile(statements);
+        if(bytes == null) return false;
+
+        MethodHandles.Lookup script;
+        MethodHandle run;
+        MethodHandle[] getters = new MethodHandle[compiler.m_globals.size()];
+        try
+        {
+            script = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            Class<?> type = script.lookupClass();
+            run = script.findStatic(type, JvmCompiler.RUN, MethodType.methodType(void.class, PrintSink.class));
+
+            // hand the globals we already have to the new class
+            int i = 0;
+            for(String name : compiler.m_globals)
+            {
+                String field = JvmCompiler.field(name);
+                Object value = m_globals.containsKey(name) ? m_globals.get(name) : UNDEFINED;
+                script.findStaticSetter(type, field, Object.class).invoke(value);
+                getters[i++] = script.findStaticGetter(type, field, Object.class);
+            }
+        }
+        catch(Throwable error)
+        {
+            // the compiler made a class the JVM does not like, that is our bug
+            throw new IllegalStateException("Could not load compiled script", error);
+        }
+
+        try
+        {
+            run.invokeExact(m_out);
+        }
+        catch(RuntimeError error)
+        {
+            m_out.flush();
+            m_errors.runtimeError(error);
+        }
+        catch(RuntimeException | Error error)
+        {
+            throw error;
+        }
+        catch(Throwable error)
+        {
+            throw new IllegalStateException(error);
+        }
+        finally
+        {
+            m_out.flush();
+            // and take back whatever the script defined
+            int i = 0;
+            for(String name : compiler.m_globals)
+            {
+                Object value = get(getters[i++]);
+                if(value != UNDEFINED) m_globals.put(name, value);
+            }
+        }
+        return true;
+    }
+
+    private static Object get(MethodHandle getter)
+    {
+        try
+        {
+            return (Object)getter.invokeExact();
+        }
+        catch(Throwable error)
+        {
+            throw new IllegalStateException(error);
+        }
+    }
+
+    static Object checkDefined(Object value, String name, int offset)
+    {
+        if(value == UNDEFINED) throw error(offset, "Undefined varialble" + name + ".");
+        return value;
+    }
+
+    static void checkAssignable(Object current, String name, int offset)
+    {
+        if(current == UNDEFINED) throw error(offset, "Undefined variable " + name + ".");
+    }
+
+    static Object add(Object left, Object right, int offset)
+    {
+        if(left instanceof Double && right instanceof Double)
+        {
+            return (double)left + (double)right;
+        }
+        if(Rope.isString(left) && Rope.isString(right))
+        {
+            return Rope.concat(left, right, offset);
+        }
+        throw error(offset, "Operands must be numbers or two strings");
+    }
+
+    static double subtract(Object left, Object right, int offset)
+    {
+        checkNumberOperands(left, right, offset);
+        return (double)left - (double)right;
+    }
+
+    static double multiply(Object left, Object right, int offset)
+    {
+        checkNumberOperands(left, right, offset);
+        return (double)left * (double)right;
+    }
+
+    static double divide(Object left, Object right, int offset)
+    {
+        checkNumberOperands(left, right, offset);
+        return (double)left / checkDivisor((double)right, offset);
+    }
+
+    /**
+     * @return the divisor, so the generated code can ddiv right after
+     */
+    static double checkDivisor(double right, int offset)
+    {
+        if(right == 0) throw error(offset, "Division by Zero");
+        return right;
+    }
+
+    static double negate(Object right, int offset)
+    {
+        if(!(right instanceof Double)) throw error(offset, "Operand must be a number.");
+        return -(double)right;
+    }
+
+    static boolean greater(Object left, Object right, int offset)
+    {
+        checkNumberOperands(left, right, offset);
+        return (double)left > (double)right;
+    }
+
+    static boolean greaterEqual(Object left, Object right, int offset)
+    {
+        checkNumberOperands(left, right, offset);
+        return (double)left >= (double)right;
+    }
+
+    static boolean less(Object left, Object right, int offset)
+    {
+        checkNumberOperands(left, right, offset);
+        return (double)left < (double)right;
+    }
+
+    static boolean lessEqual(Object left, Object right, int offset)
+    {
+        checkNumberOperands(left, right, offset);
+        return (double)left <= (double)right;
+    }
+
+    static boolean isTruthy(Object value)
+    {
+        return Interpreter.isTruthy(value);
+    }
+
+    static boolean isEqual(Object left, Object right)
+    {
+        return Interpreter.isEqual(left, right);
+    }
+
+    static void print(Object value, PrintSink out)
+    {
+        out.println(value);
+    }
+
+    private static void checkNumberOperands(Object left, Object right, int offset)
+    {
+        if(left instanceof Double && right instanceof Double) return;
+        throw error(offset, "Operands must be numbers");
+    }
+
+    private static RuntimeError error(int offset, String message)
+    {
+        return new RuntimeError(offset, message);
+    }
+}
@@ -1,60 +1,121 @@
 package lox;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.Reader;
 import java.util.List;
-import java.util.Map;
 
 //import lox.TokenType;
 
 public class Lexer 
 {
-    private final String m_source; // source file 
-    private final List<Token> m_tokens = new ArrayList<>(); // list of tokens
+    private final SourceReader m_source; // source file 
+    private final SymbolTable m_symbols = new SymbolTable(m_keywords);
+    private final TokenBuffer m_tokens; // the tokens we have found so far
+    private boolean m_finished = false; // EOF token has been added
     private int m_start = 0; // to track start of a lexeme
     private int m_current = 0; // to track current position in lexeme
     private int m_line = 1; // to track line we are in
+    private final ErrorReporter m_errors;
 
-    private static final Map<String,TokenType> m_keywords;
-    static
+    // keywords go into every symbol table first, so a keyword's symbol id
+    // is its index here and we never need a String to look one up
+    private static final String[] m_keywords = {
+        "and", "class", "else", "false", "for", "fun", "if", "nil",
+        "or", "print", "return", "super", "this", "true", "var", "while"
+    };
+    private static final TokenType[] m_keywordTypes = {
+        TokenType.AND, TokenType.CLASS, TokenType.ELSE, TokenType.FALSE,
+        TokenType.FOR, TokenType.FUN, TokenType.IF, TokenType.NIL,
+        TokenType.OR, TokenType.PRINT, TokenType.RETURN, TokenType.SUPER,
+        TokenType.THIS, TokenType.TRUE, TokenType.VAR, TokenType.WHILE
+    };
+
+    Lexer(String l_source, ErrorReporter l_errors)
     {
-        m_keywords = new HashMap<>();
-        m_keywords.put("and",    TokenType.AND);
-        m_keywords.put("class",  TokenType.CLASS);
-        m_keywords.put("else",   TokenType.ELSE);
-        m_keywords.put("false",  TokenType.FALSE);
-        m_keywords.put("for",    TokenType.FOR);
-        m_keywords.put("fun",    TokenType.FUN);
-        m_keywords.put("if",     TokenType.IF);
-        m_keywords.put("nil",    TokenType.NIL);
-        m_keywords.put("or",     TokenType.OR);
-        m_keywords.put("print",  TokenType.PRINT);
-        m_keywords.put("return", TokenType.RETURN);
-        m_keywords.put("super",  TokenType.SUPER);
-        m_keywords.put("this",   TokenType.THIS);
-        m_keywords.put("true",   TokenType.TRUE);
-        m_keywords.put("var",    TokenType.VAR);
-        m_keywords.put("while",  TokenType.WHILE);
+        this.m_source = new SourceReader(l_source);
+        this.m_errors = l_errors;
+        // real code averages a bit under one token per four characters
+        // so this usually needs at most one resize
+        this.m_tokens = new TokenBuffer(m_symbols, new LineTable(), l_source.length() / 4);
     }
 
-    Lexer(String l_source)
+    /**
+     * scans just source from start to end, which starts on line
+     */
+    Lexer(String l_source, int l_start, int l_end, int l_line, ErrorReporter l_errors)
     {
-        this.m_source = l_source;
+        this.m_source = new SourceReader(l_source, l_start, l_end);
+        this.m_errors = l_errors;
+        this.m_tokens = new TokenBuffer(m_symbols, new LineTable(l_start, l_line), (l_end - l_start) / 4);
+        this.m_start = l_start;
+        this.m_current = l_start;
+        this.m_line = l_line;
     }
+
     /**
-     * @return A list of tokens for parser to process
+     * reads the source as it goes, use stream() with this one
      */
-    List<Token> scanTokens()
+    Lexer(Reader l_reader, ErrorReporter l_errors)
+    {
+        this.m_source = new SourceReader(l_reader);
+        this.m_errors = l_errors;
+        this.m_tokens = new TokenBuffer(m_symbols, new LineTable(), 16);
+    }
+
+    /**
+     * @return All the tokens packed into a buffer for the parser to process
+     */
+    TokenBuffer scanBuffer()
+    {
+        while(nextToken())
+        {
+        }
+
+        return m_tokens;
+    }
+
+    /**
+     * @return A buffer that scans tokens only when the parser gets to them
+     * and forgets them once the parser is past them
+     */
+    TokenBuffer stream()
+    {
+        m_tokens.streamFrom(this);
+        return m_tokens;
+    }
+
+    /**
+     * Scans until one more token is in the buffer, the last one is EOF
+     * @return false once there is nothing left to scan
+     */
+    boolean nextToken()
     {
-        while(!isAtEnd())
+        if(m_finished) return false;
+
+        int count = m_tokens.size();
+        while(m_tokens.size() == count)
         {
+            if(isAtEnd())
+            {
+                m_tokens.add(TokenType.EOF, m_current, 0, m_line, -1);
+                m_finished = true;
+                return true;
+            }
+
             m_start = m_current;
+            m_source.release(m_start);
             scanToken();
         }
 
-        m_tokens.add(new Token(TokenType.EOF,"",null,m_line));
+        return true;
+    }
 
-        return m_tokens;
+    /**
+     * @return A list of tokens, handy for looking at them but the
+     * parser wants the buffer from scanBuffer
+     */
+    List<Token> scanTokens()
+    {
+        return scanBuffer().toList();
     }
 
     /**
@@ -68,7 +129,7 @@ public class Lexer
             case ' ' :
             case '\t':
             case '\r': break;
-            case '\n': m_line++;break;
+            case '\n': newline();break;
             case '(' : addToken(TokenType.LEFT_PAREN);break;
             case ')' : addToken(TokenType.RIGHT_PAREN);break;
             case '{' : addToken(TokenType.LEFT_BRACE);break;
@@ -80,13 +141,13 @@ public class Lexer
             case ',' : addToken(TokenType.COMMA);break;
             case '.' : addToken(TokenType.DOT);break;
             case '!' : 
-                addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.EQUAL);
+                addToken(match('=') ? TokenType.BANG_EQUAL : TokenType.BANG);
                 break;
             case '<' : 
-                addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.EQUAL);
+                addToken(match('=') ? TokenType.LESS_EQUAL : TokenType.LESS);
                 break;
             case '>' : 
-                addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.EQUAL);
+                addToken(match('=') ? TokenType.GREATER_EQUAL : TokenType.GREATER);
                 break;
             case '=' : 
                 addToken(match('=') ? TokenType.EQUAL_EQUAL : TokenType.EQUAL);
@@ -114,7 +175,7 @@ public class Lexer
                     identifier();
                 }
                 else
-                {Lox.error(m_line,"Unexpected character.");}
+                {m_errors.error(m_line,"Unexpected character.");}
                 break;
         }
     }
@@ -129,21 +190,29 @@ public class Lexer
         return m_source.charAt(m_current-1);
     }
 
+    /**
+     * just past a newline
+     */
+    private void newline()
+    {
+        m_line++;
+        m_tokens.m_lineTable.newline(m_current);
+    }
+
     private void addToken(TokenType l_type)
     {
         // as you can see we are overloading by arguments
-        addToken(l_type,null);
+        addToken(l_type,-1);
     }
 
-    private void addToken(TokenType l_type, Object l_literal)
+    private void addToken(TokenType l_type, int l_symbol)
     {
-        String l_text = m_source.substring(m_start,m_current);
-        m_tokens.add(new Token(l_type,l_text,l_literal,m_line));
+        m_tokens.add(l_type, m_start, m_current - m_start, m_line, l_symbol);
     }
 
     private boolean isAtEnd()
     {
-        return m_current >= m_source.length();
+        return !m_source.has(m_current);
     }
 
     /**
@@ -176,13 +245,12 @@ public class Lexer
     {
         while(peek() != '"' && !isAtEnd())
         {
-            if(peek() == '\n')m_line++;
-            advance();
+            if(advance() == '\n') newline();
         }
 
         if(isAtEnd())
         {
-            Lox.error(m_line,"Unterminated string.");
+            m_errors.error(m_line,"Unterminated string.");
             return;
         }
 
@@ -190,8 +258,7 @@ public class Lexer
         advance();
 
         //now we exclude the surronunding " "
-        String value = m_source.substring(m_start + 1, m_current -1);
-        addToken(TokenType.STRING, value);
+        addToken(TokenType.STRING, m_symbols.intern(m_source, m_start + 1, m_current - 1));
     }
 
     /**
@@ -218,13 +285,13 @@ public class Lexer
             while(isDigit(peek())) advance();
         }
 
-        addToken(TokenType.NUMBER,
-        Double.parseDouble(m_source.substring(m_start,m_current)));
+        // the value is only worked out if the parser asks for it
+        addToken(TokenType.NUMBER, m_symbols.intern(m_source, m_start, m_current));
     }
 
     private char peekNext()
     {
-        if(m_current + 1 >= m_source.length())return '\0';
+        if(!m_source.has(m_current + 1))return '\0';
         return m_source.charAt(m_current+1);
     }
 
@@ -244,9 +311,14 @@ public class Lexer
     {
         while(isAlphaNumeric(peek())) advance();
 
-        String text = m_source.substring(m_start,m_current);
-        TokenType type = m_keywords.get(text);
-        if(type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+        int symbol = m_symbols.intern(m_source, m_start, m_current);
+        if(symbol < m_keywords.length)
+        {
+            addToken(m_keywordTypes[symbol]);
+        }
+        else
+        {
+            addToken(TokenType.IDENTIFIER, symbol);
+        }
     }
 }
@@ -0,0 +1,177 @@
+package lox;
+
+import java.util.Arrays;
+
+/**
+ * Which line a source offset is on. The tree only keeps offsets, this is
+ * what turns one into a line when an error gets reported.
+ *
+ * An int per line for where it starts would be 4 bytes a line, instead
+ * every line is its length as a varint, one byte for anything under 128
+ * chars, and only the start of every STRIDE-th line is kept as an int to
+ * jump to. Finding a line is a binary search over those and then adding
+ * up at most STRIDE lengths, which is plenty fast for error messages.
+ *
+ * The Lexer fills one in as it goes so streaming from a Reader gets one
+ * too, lines are only ever added at the end.
+ */
+class LineTable
+{
+    private static final int STRIDE = 64;
+
+    // offset and line the table starts at, a Lexer over part of a source
+    // does not start at the top
+    private final int m_firstStart;
+    private final int m_firstLine;
+
+    // length of every line but the last, newline included, as varints
+    byte[] m_lengths = new byte[64];
+    int m_size = 0;
+
+    // for every STRIDE-th line, where it starts and where its length is
+    private int[] m_starts = new int[16];
+    private int[] m_positions = new int[16];
+    private int m_checkpoints = 1;
+
+    private int m_lastStart;
+    private int m_lines = 1;
+
+    LineTable()
+    {
+        this(0, 1);
+    }
+
+    LineTable(int l_start, int l_line)
+    {
+        this.m_firstStart = l_start;
+        this.m_firstLine = l_line;
+        this.m_lastStart = l_start;
+        m_starts[0] = l_start;
+    }
+
+    /**
+     * one pass over the whole source, for when no Lexer saw all of it
+     */
+    static LineTable of(CharSequence source)
+    {
+        LineTable lines = new LineTable();
+        for(int i = 0; i < source.length(); i++)
+        {
+            if(source.charAt(i) == '\n') lines.newline(i + 1);
+        }
+        return lines;
+    }
+
+    /**
+     * reads back the lengths AstSerializer wrote out
+     */
+    static LineTable ofLengths(byte[] lengths)
+    {
+        LineTable lines = new LineTable();
+        lines.addLengths(lengths, lengths.length, 0);
+        return lines;
+    }
+
+    /**
+     * a new line starts at offset next
+     */
+    void newline(int next)
+    {
+        int length = next - m_lastStart;
+        if(m_size + 5 > m_lengths.length)
+        {
+            m_lengths = Arrays.copyOf(m_lengths, m_lengths.length * 2);
+        }
+        while((length & ~0x7f) != 0)
+        {
+            m_lengths[m_size++] = (byte)((length & 0x7f) | 0x80);
+            length >>>= 7;
+        }
+        m_lengths[m_size++] = (byte)length;
+
+        m_lastStart = next;
+        if(m_lines++ % STRIDE == 0)
+        {
+            if(m_checkpoints == m_starts.length)
+            {
+                m_starts = Arrays.copyOf(m_starts, m_checkpoints * 2);
+                m_positions = Arrays.copyOf(m_positions, m_checkpoints * 2);
+            }
+            m_starts[m_checkpoints] = next;
+            m_positions[m_checkpoints] = m_size;
+            m_checkpoints++;
+        }
+    }
+
+    /**
+     * adds the lines of next, which starts where this one ends
+     */
+    void append(LineTable next)
+    {
+        addLengths(next.m_lengths, next.m_size, next.m_firstStart);
+    }
+
+    /**
+     * @return the line offset is on, the first line for anything before
+     * the table starts
+     */
+    int line(int offset)
+    {
+        // the last checkpoint that starts at or before offset
+        int low = 0;
+        int high = m_checkpoints - 1;
+        while(low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if(m_starts[mid] <= offset) low = mid;
+            else high = mid - 1;
+        }
+
+        int line = m_firstLine + low * STRIDE;
+        int start = m_starts[low];
+        int at = m_positions[low];
+        while(at < m_size)
+        {
+            int length = length(m_lengths, at);
+            if(start + length > offset) break;
+            start += length;
+            at = next(m_lengths, at);
+            line++;
+        }
+        return line;
+    }
+
+    private void addLengths(byte[] lengths, int size, int start)
+    {
+        for(int at = 0; at < size; at = next(lengths, at))
+        {
+            start += length(lengths, at);
+            newline(start);
+        }
+    }
+
+    /**
+     * @return the varint at
+     */
+    private static int length(byte[] lengths, int at)
+    {
+        int length = 0;
+        for(int shift = 0; ; shift += 7)
+        {
+            byte b = lengths[at++];
+            length |= (b & 0x7f) << shift;
+            if(b >= 0) return length;
+        }
+    }
+
+    /**
+     * @return where the varint after the one at starts
+     */
+    private static int next(byte[] lengths, int at)
+    {
+        while(lengths[at++] < 0)
+        {
+        }
+        return at;
+    }
+}
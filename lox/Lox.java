@@ -5,70 +5,236 @@ import java.io.BufferedReader;
 //import java.io.IO;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 
 
 public class Lox
 {
-    private static final Interpreter m_interpreter = new Interpreter();
-    static boolean m_hadError;
-    static boolean m_hadRuntimeError;
-    static boolean m_repl;
+    // everything here belongs to one jlox command, Script is the way in
+    // for running scripts side by side
+    private final ErrorReporter m_errors = new ErrorReporter(ErrorSink.printingTo(System.err));
+    private final PrintSink m_out = new PrintSink(System.out);
+    private final VM m_vm = new VM(m_errors, m_out);
+    private final JvmRuntime m_jvm = new JvmRuntime(m_errors, m_out);
+    private final ClosureRuntime m_closures = new ClosureRuntime(m_errors, m_out);
+    private Interpreter m_interpreter;
+    private boolean m_repl;
+    // run on the bytecode VM instead of the tree walker
+    private boolean m_useVM;
+    // compile to a JVM class and let the JIT have it
+    private boolean m_useJvm;
+    // build the tree into pre-bound node objects and run those
+    private boolean m_useClosures;
+    // print every token type before running, needs the whole source up front
+    private boolean m_dumpTokens;
+    // set by --parallel-parse, the whole file is read and parsed in pieces
+    private boolean m_parallelParse;
+    // set by --cache, parsed scripts are kept on disk between runs
+    private AstCache m_cache;
+    // set by --profile, m_interpreter is then a ProfilingInterpreter that
+    // counts and times every statement
+    private boolean m_profile;
     public static void main(String[] args) throws IOException
     {
+        Lox lox = new Lox();
+        int first = 0;
+        boolean tiering = true;
+        boolean profile = false;
+        boolean batch = false;
+        while(first < args.length && args[first].startsWith("--"))
+        {
+            switch(args[first])
+            {
+                case "--vm"     : lox.m_useVM = true; break;
+                case "--jvm"    : lox.m_useJvm = true; break;
+                case "--closures" : lox.m_useClosures = true; break;
+                case "--no-tiering" : tiering = false; break;
+                case "--profile" : profile = true; break;
+                case "--tokens" : lox.m_dumpTokens = true; break;
+                case "--cache"  : lox.m_cache = AstCache.fromSystemProperties(); break;
+                case "--batch"  : batch = true; break;
+                case "--parallel-parse" : lox.m_parallelParse = true; break;
+                default         : usage();
+            }
+            first++;
+        }
+        args = Arrays.copyOfRange(args, first, args.length);
+        LoxMetrics.registerIfEnabled();
+
+        if(batch)
+        {
+            // every script gets a Script of its own, none of the other
+            // flags apply
+            if(args.length != 1) usage();
+            BatchRunner.configureCarriers();
+            System.exit(BatchRunner.of(Paths.get(args[0])).run(System.out, System.err));
+        }
+
+        if(profile)
+        {
+            lox.m_profile = true;
+            lox.m_interpreter = ProfilingInterpreter.create(lox.m_errors, lox.m_out);
+        }
+        else
+        {
+            lox.m_interpreter = new Interpreter(lox.m_errors, lox.m_out);
+            lox.m_interpreter.m_tiering = tiering;
+        }
+
         if (args.length > 1)
         {
-            System.out.println("Usage jlox [script]");
-            System.exit(64);
+            usage();
         }
         else if (args.length == 1)
         {
-            runFile(args[0]);
+            lox.runFile(args[0]);
         }
         else
         {
-            runPrompt();
+            lox.runPrompt();
         }
     }
 
-    private static void runFile(String path) throws IOException
+    private static void usage()
     {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
-        if(m_hadError) System.exit(65);
-        if(m_hadRuntimeError) System.exit(70);
+        System.out.println("Usage jlox [--vm] [--jvm] [--closures] [--no-tiering] [--profile] [--tokens] [--cache] [--parallel-parse] [script]");
+        System.out.println("       jlox --batch [directory | manifest]");
+        System.exit(64);
+    }
+
+    private void runFile(String path) throws IOException
+    {
+        Path file = Paths.get(path);
+        if(m_dumpTokens)
+        {
+            byte[] bytes = Files.readAllBytes(file);
+            run(new String(bytes, Charset.defaultCharset()));
+        }
+        else if(m_cache != null)
+        {
+            runCached(file);
+        }
+        else if(m_parallelParse)
+        {
+            String source = new String(Files.readAllBytes(file), Charset.defaultCharset());
+            List<Stmt> statements = Script.compileParallel(source, m_errors);
+            if(statements != null) execute(statements);
+            // a syntax error somewhere, parse the same way as without the flag
+            else run(new Lexer(new StringReader(source), m_errors).stream());
+        }
+        else
+        {
+            // the lexer reads the file as the parser asks for tokens
+            // so we never hold the whole file or all of its tokens
+            try(Reader reader = new InputStreamReader(
+                Files.newInputStream(file), Charset.defaultCharset()))
+            {
+                run(new Lexer(reader, m_errors).stream());
+            }
+        }
+        if(m_profile)
+        {
+            ProfilingInterpreter.report(m_interpreter, System.err, Paths.get(System.getProperty("lox.profile.out", "profile.folded")));
+        }
+        if(m_errors.m_hadError) System.exit(65);
+        if(m_errors.m_hadRuntimeError) System.exit(70);
     }
 
-    private static void runPrompt() throws IOException
+    private void runPrompt() throws IOException
     {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader   = new BufferedReader(input);
         m_repl = true;
         while(true)
         {
+            m_out.flush();
             System.out.print("> ");
             String line = reader.readLine();
             if(line == null)break;
             run(line);
-            m_hadError = false;
+            m_errors.m_hadError = false;
+        }
+    }
+
+    private void run(String source)
+    {
+        TokenBuffer tokens = Script.lex(source, m_errors);
+
+        if(m_dumpTokens)
+        {
+            for(int i = 0; i < tokens.size(); i++)
+            {
+                System.out.println(tokens.type(i));
+            }
+        }
+        run(tokens);
+    }
+
+    private void runCached(Path file) throws IOException
+    {
+        String key = m_cache.key(file);
+        // hits and misses are counted in LoxMetrics, the script's own
+        // stderr stays the same whether it was cached or not
+        List<Stmt> statements = m_cache.load(key, m_errors);
+        if(statements == null)
+        {
+            try(Reader reader = new InputStreamReader(
+                Files.newInputStream(file), Charset.defaultCharset()))
+            {
+                statements = compile(new Lexer(reader, m_errors).stream());
+            }
+            // scripts with syntax errors are not worth keeping
+            if(statements == null) return;
+            m_cache.store(key, statements, m_errors.m_lines);
         }
+
+        execute(statements);
+    }
+
+    private void run(TokenBuffer tokens)
+    {
+        List<Stmt> statements = compile(tokens);
+        if(statements == null) return;
+
+        execute(statements);
+    }
+
+    private List<Stmt> compile(TokenBuffer tokens)
+    {
+        return Script.compile(tokens, m_errors);
     }
 
-    private static void run(String source)
+    private void execute(List<Stmt> statements)
     {
-        Lexer scanner = new Lexer(source);
-        List<Token> tokens = scanner.scanTokens();
+        String backend = m_useVM ? "vm" : m_useJvm ? "jvm" : m_useClosures ? "closures" : "interpreter";
+        Script.execute(backend, m_errors, () -> executeOn(statements));
+    }
 
-        for(Token token : tokens)
+    private void executeOn(List<Stmt> statements)
+    {
+        if(m_useVM)
+        {
+            runOnVM(statements);
+            return;
+        }
+        if(m_useJvm)
         {
-            System.out.println(token.m_type);
+            runOnJvm(statements);
+            return;
+        }
+        if(m_useClosures)
+        {
+            runOnClosures(statements);
+            return;
         }
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
 
         // this is such a hack 
         if(statements.size() == 1 && statements.get(0) instanceof Stmt.Expression)
@@ -86,34 +252,49 @@ public class Lox
         m_interpreter.interpret(statements);
     }
 
-    static void error(int l_line, String l_message)
+    private void runOnVM(List<Stmt> statements)
     {
-        report(l_line,"",l_message);
+        // same REPL hack as below, a lone expression gets printed
+        if(statements.size() == 1 && statements.get(0) instanceof Stmt.Expression)
+        {
+            Expr expr = ((Stmt.Expression)statements.get(0)).expression;
+            statements = Arrays.asList(new Stmt.Print(expr));
+        }
+
+        Chunk chunk = new Compiler().compile(statements);
+        if(chunk == null)
+        {
+            System.err.println("[vm] script does not fit in one chunk, using the interpreter");
+            m_interpreter.interpret(statements);
+            return;
+        }
+
+        m_vm.interpret(chunk);
     }
 
-    private static void report(int l_line, String l_where, String l_message)
+    private void runOnClosures(List<Stmt> statements)
     {
-        System.err.println(
-            "line[" + l_line +"] Error" + l_where + ": " + l_message);
-        m_hadError = true;
+        if(statements.size() == 1 && statements.get(0) instanceof Stmt.Expression)
+        {
+            Expr expr = ((Stmt.Expression)statements.get(0)).expression;
+            statements = Arrays.asList(new Stmt.Print(expr));
+        }
+
+        m_closures.interpret(statements);
     }
 
-    static void error(Token l_token, String l_message)
+    private void runOnJvm(List<Stmt> statements)
     {
-        if(l_token.m_type == TokenType.EOF)
+        if(statements.size() == 1 && statements.get(0) instanceof Stmt.Expression)
         {
-            report(l_token.m_line, " at end", l_message);
+            Expr expr = ((Stmt.Expression)statements.get(0)).expression;
+            statements = Arrays.asList(new Stmt.Print(expr));
         }
-        else
+
+        if(!m_jvm.interpret(statements))
         {
-            report(l_token.m_line, " at " + l_token.m_lexeme + "'", l_message);
+            System.err.println("[jvm] script does not fit in one class, using the interpreter");
+            m_interpreter.interpret(statements);
         }
     }
-
-    static void runtimeError(RuntimeError l_error)
-    {
-        System.err.println(l_error.getMessage() + 
-        "\n[line " + l_error.m_token.m_line + "]");
-        m_hadRuntimeError = true;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,62 @@
+package lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder events, one per phase per script.
+ * Lexing only gets its own event when the whole source is scanned up
+ * front, when streaming the lexer runs inside Parse.
+ */
+class LoxEvents
+{
+    // The first event class to load starts up all of JFR, which takes
+    // longer than a short script does to run. So there are only events
+    // when the JVM was started with a recording, or -Dlox.jfr=true says
+    // one is going to be started later with jcmd.
+    static final boolean ENABLED = Boolean.getBoolean("lox.jfr") || FlightRecorder.isInitialized();
+
+    @Name("lox.Lex")
+    @Label("Lox Lex")
+    @Category("Lox")
+    @Description("Scanning a whole source into tokens")
+    static class Lex extends Event
+    {
+        @Label("Tokens")
+        int tokens;
+    }
+
+    @Name("lox.Parse")
+    @Label("Lox Parse")
+    @Category("Lox")
+    @Description("Parsing, and lexing too when the source is streamed")
+    static class Parse extends Event
+    {
+        @Label("Tokens")
+        int tokens;
+
+        @Label("Nodes")
+        @Description("Nodes left after the optimizer")
+        int nodes;
+
+        @Label("Syntax Error")
+        boolean syntaxError;
+    }
+
+    @Name("lox.Interpret")
+    @Label("Lox Interpret")
+    @Category("Lox")
+    @Description("Running a parsed script")
+    static class Interpret extends Event
+    {
+        @Label("Backend")
+        String backend;
+
+        @Label("Runtime Error")
+        boolean runtimeError;
+    }
+}
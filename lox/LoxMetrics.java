@@ -0,0 +1,108 @@
+package lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters for the whole process. They are always counted, LongAdder
+ * keeps that cheap even from many threads. They only show up over JMX
+ * as lox:type=Metrics when -Dlox.jmx=true, starting the platform MBean
+ * server costs more than a short script takes to run.
+ */
+public class LoxMetrics implements LoxMetricsMBean
+{
+    static final LongAdder m_scripts = new LongAdder();
+    static final LongAdder m_tokens = new LongAdder();
+    static final LongAdder m_nodes = new LongAdder();
+    static final LongAdder m_runtimeErrors = new LongAdder();
+    static final LongAdder m_environments = new LongAdder();
+    static final LongAdder m_lexNanos = new LongAdder();
+    static final LongAdder m_parseNanos = new LongAdder();
+    static final LongAdder m_interpretNanos = new LongAdder();
+    static final LongAdder m_cacheHits = new LongAdder();
+    static final LongAdder m_cacheMisses = new LongAdder();
+
+    private static boolean m_registered;
+
+    /**
+     * registers the MBean if -Dlox.jmx=true, only the first call does anything
+     */
+    static synchronized void registerIfEnabled()
+    {
+        if(m_registered || !Boolean.getBoolean("lox.jmx")) return;
+        m_registered = true;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new LoxMetrics(), new ObjectName("lox:type=Metrics"));
+        }
+        catch(JMException error)
+        {
+            // no metrics is no reason not to run the script
+            System.err.println("[jmx] could not register metrics: " + error.getMessage());
+        }
+    }
+
+    @Override
+    public long getScripts()
+    {
+        return m_scripts.sum();
+    }
+
+    @Override
+    public long getTokens()
+    {
+        return m_tokens.sum();
+    }
+
+    @Override
+    public long getNodes()
+    {
+        return m_nodes.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors()
+    {
+        return m_runtimeErrors.sum();
+    }
+
+    @Override
+    public long getEnvironments()
+    {
+        return m_environments.sum();
+    }
+
+    @Override
+    public long getLexNanos()
+    {
+        return m_lexNanos.sum();
+    }
+
+    @Override
+    public long getParseNanos()
+    {
+        return m_parseNanos.sum();
+    }
+
+    @Override
+    public long getInterpretNanos()
+    {
+        return m_interpretNanos.sum();
+    }
+
+    @Override
+    public long getCacheHits()
+    {
+        return m_cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses()
+    {
+        return m_cacheMisses.sum();
+    }
+}
@@ -0,0 +1,19 @@
+package lox;
+
+/**
+ * What LoxMetrics shows over JMX, everything is a total since start up.
+ * JMX wants this interface public.
+ */
+public interface LoxMetricsMBean
+{
+    long getScripts();
+    long getTokens();
+    long getNodes();
+    long getRuntimeErrors();
+    long getEnvironments();
+    long getLexNanos();
+    long getParseNanos();
+    long getInterpretNanos();
+    long getCacheHits();
+    long getCacheMisses();
+}
@@ -0,0 +1,41 @@
+package lox;
+
+/**
+ * Instruction set for the bytecode VM.
+ * Operands (where there are any) are two bytes, big endian, right
+ * after the opcode.
+ */
+final class OpCode
+{
+    static final byte CONSTANT      = 0;  // u16 constant index
+    static final byte NIL           = 1;
+    static final byte TRUE          = 2;
+    static final byte FALSE         = 3;
+    static final byte POP           = 4;
+    static final byte GET_LOCAL     = 5;  // u16 stack slot
+    static final byte SET_LOCAL     = 6;  // u16 stack slot
+    static final byte GET_GLOBAL    = 7;  // u16 constant index of the name
+    static final byte DEFINE_GLOBAL = 8;  // u16 constant index of the name
+    static final byte SET_GLOBAL    = 9;  // u16 constant index of the name
+    static final byte EQUAL         = 10;
+    static final byte NOT_EQUAL     = 11;
+    static final byte GREATER       = 12;
+    static final byte GREATER_EQUAL = 13;
+    static final byte LESS          = 14;
+    static final byte LESS_EQUAL    = 15;
+    static final byte ADD           = 16;
+    static final byte SUBTRACT      = 17;
+    static final byte MULTIPLY      = 18;
+    static final byte DIVIDE        = 19;
+    static final byte NOT           = 20;
+    static final byte NEGATE        = 21;
+    static final byte PRINT         = 22;
+    static final byte JUMP          = 23; // u16 forward offset
+    static final byte JUMP_IF_FALSE = 24; // u16 forward offset, leaves the condition
+    static final byte LOOP          = 25; // u16 backward offset
+    static final byte RESERVE       = 26; // u16 number of nil slots for a block
+    static final byte POPN          = 27; // u16 number of slots to drop
+    static final byte RETURN        = 28;
+
+    private OpCode() {}
+}
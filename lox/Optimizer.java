@@ -0,0 +1,286 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Runs over the tree after parsing and hands back a simpler one:
+ * constant subexpressions are folded into literals, if/while
+ * branches that can never run are dropped and CodeMotion keeps values
+ * in locals instead of working them out again.
+ * Anything that would throw a RuntimeError (division by zero, bad
+ * operand types) is left alone so it still throws at runtime, on the
+ * same line, with the same message.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt>
+{
+    // hoisting out of loops and common subexpressions
+    private final CodeMotion m_motion = new CodeMotion();
+    // if the block we are in declares locals already, only then can
+    // CodeMotion add its own. At the top level they would be globals and
+    // a block that declares nothing gets no scope of its own (and a loop
+    // body like that can be a CountedLoop), a temp would take that away
+    private boolean m_hasLocals = false;
+    // while loops we are inside of
+    private int m_loops = 0;
+    // names whose var statement has run by the time we get here, in this
+    // block or one around it, reading them can never throw
+    private final Set<String> m_defined = new HashSet<>();
+    // the ones the block we are in put there, they go when it ends
+    private List<String> m_definedHere = new ArrayList<>();
+
+    List<Stmt> optimize(List<Stmt> statements)
+    {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        for(Stmt statement : statements)
+        {
+            Stmt stmt = optimize(statement);
+            if(isEmpty(stmt)) continue;
+            if(stmt instanceof Stmt.While) optimized.addAll(hoist((Stmt.While)stmt));
+            else if(m_hasLocals) optimized.addAll(m_motion.commonSubexpressions(stmt));
+            else optimized.add(stmt);
+        }
+        return optimized;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt)
+    {
+        boolean enclosing = m_hasLocals;
+        List<String> enclosingDefined = m_definedHere;
+        m_hasLocals = declares(stmt.statements);
+        m_definedHere = new ArrayList<>();
+        List<Stmt> statements = optimize(stmt.statements);
+        for(String name : m_definedHere)
+        {
+            m_defined.remove(name);
+        }
+        m_hasLocals = enclosing;
+        m_definedHere = enclosingDefined;
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return new Stmt.Expression(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt)
+    {
+        Expr condition = optimize(stmt.condition);
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+
+        // branches are statements and never declarations, so putting one
+        // in place of the whole if does not change any scoping
+        if(condition instanceof Expr.Literal)
+        {
+            if(Interpreter.isTruthy(((Expr.Literal)condition).value)) return thenBranch;
+            if(elseBranch != null) return elseBranch;
+            return empty();
+        }
+
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt)
+    {
+        Expr condition = optimize(stmt.condition);
+        if(condition instanceof Expr.Literal
+            && !Interpreter.isTruthy(((Expr.Literal)condition).value))
+        {
+            return empty();
+        }
+
+        m_loops++;
+        Stmt.While loop = new Stmt.While(condition, optimize(stmt.body));
+        m_loops--;
+        loop.line = stmt.line;
+        return loop;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt)
+    {
+        return new Stmt.Print(optimize(stmt.expression));
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt)
+    {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        if(m_defined.add(stmt.name)) m_definedHere.add(stmt.name);
+        return new Stmt.Var(stmt.name, stmt.offset, initializer);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr)
+    {
+        return new Expr.Assign(expr.name, expr.offset, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr)
+    {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if(left instanceof Expr.Literal && right instanceof Expr.Literal)
+        {
+            Object folded = fold(expr.operator,
+                ((Expr.Literal)left).value, ((Expr.Literal)right).value);
+            if(folded != CANNOT_FOLD) return new Expr.Literal(folded);
+        }
+
+        return new Expr.Binary(left, expr.operator, expr.offset, right);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr)
+    {
+        // grouping only matters to the parser, the tree already has the order
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr)
+    {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr)
+    {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if(left instanceof Expr.Literal)
+        {
+            // and/or give back one of their operands, so once we know the
+            // left one we know which operand that is
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal)left).value);
+            if(expr.operator == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr)
+    {
+        Expr right = optimize(expr.right);
+
+        if(right instanceof Expr.Literal)
+        {
+            Object value = ((Expr.Literal)right).value;
+            switch(expr.operator)
+            {
+                case TokenType.BANG :
+                    return new Expr.Literal(!Interpreter.isTruthy(value));
+                case TokenType.MINUS :
+                    if(value instanceof Double) return new Expr.Literal(-(double)value);
+                    break;
+                default:
+            }
+        }
+
+        return new Expr.Unary(expr.operator, expr.offset, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr)
+    {
+        return expr;
+    }
+
+    // fold() gives this back when evaluating would throw
+    private static final Object CANNOT_FOLD = new Object();
+
+    /**
+     * Same rules as Interpreter.binaryOnValues but gives up instead of
+     * throwing, so the error is still raised when the program runs.
+     */
+    private static Object fold(TokenType operator, Object left, Object right)
+    {
+        if(operator == TokenType.EQUAL_EQUAL) return Interpreter.isEqual(left, right);
+        if(operator == TokenType.BANG_EQUAL) return !Interpreter.isEqual(left, right);
+
+        if(operator == TokenType.PLUS && left instanceof String && right instanceof String)
+        {
+            return (String)left + (String)right;
+        }
+
+        if(!(left instanceof Double && right instanceof Double)) return CANNOT_FOLD;
+        double a = (double)left;
+        double b = (double)right;
+
+        switch(operator)
+        {
+            case TokenType.MINUS         : return a - b;
+            case TokenType.PLUS          : return a + b;
+            case TokenType.STAR          : return a * b;
+            case TokenType.SLASH         : return b == 0 ? CANNOT_FOLD : a / b;
+            case TokenType.GREATER       : return a > b;
+            case TokenType.GREATER_EQUAL : return a >= b;
+            case TokenType.LESS          : return a < b;
+            case TokenType.LESS_EQUAL    : return a <= b;
+            default                      : return CANNOT_FOLD;
+        }
+    }
+
+    /**
+     * a loop straight in a block that has locals gets its hoisted locals
+     * right before it. Anywhere else they need a block of their own, that
+     * is only worth it when it is not made again for every time round a
+     * loop around this one
+     */
+    private List<Stmt> hoist(Stmt.While loop)
+    {
+        if(!m_hasLocals && m_loops > 0) return Collections.singletonList(loop);
+
+        List<Stmt> statements = m_motion.hoist(loop, m_defined);
+        if(m_hasLocals || statements.size() == 1) return statements;
+        Stmt.Block block = new Stmt.Block(statements);
+        block.line = loop.line;
+        return Collections.singletonList(block);
+    }
+
+    private Stmt optimize(Stmt stmt)
+    {
+        Stmt optimized = stmt.accept(this);
+        // a new node keeps the line of the one it replaces
+        if(optimized.line == 0) optimized.line = stmt.line;
+        return optimized;
+    }
+
+    private Expr optimize(Expr expr)
+    {
+        return expr.accept(this);
+    }
+
+    private static Stmt empty()
+    {
+        return new Stmt.Block(new ArrayList<>());
+    }
+
+    private static boolean isEmpty(Stmt stmt)
+    {
+        return stmt instanceof Stmt.Block && ((Stmt.Block)stmt).statements.isEmpty();
+    }
+
+    private static boolean declares(List<Stmt> statements)
+    {
+        for(Stmt statement : statements)
+        {
+            if(statement instanceof Stmt.Var) return true;
+        }
+        return false;
+    }
+}
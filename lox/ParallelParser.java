@@ -0,0 +1,129 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Lexes and parses one big source in pieces on the common ForkJoinPool.
+ * The source is cut only where StatementScanner says a top level
+ * statement ends. Each piece gets its own Lexer and Parser starting on the
+ * right line and the statements are put back together in order.
+ *
+ * Errors are where the pieces would differ from one parse of the whole
+ * thing, a piece ends where the parser would have gone on looking and
+ * synchronize stops at the end of a piece. So if any piece has an error
+ * we throw the lot away and the caller parses it the old way, which
+ * reports exactly what it always did.
+ */
+class ParallelParser
+{
+    // below this Script.compile just parses, splitting costs more than it saves
+    static final int MIN_SOURCE = 1 << 20;
+    // smallest piece worth a task of its own, -Dlox.parse.chunk to change
+    private static final int MIN_CHUNK = Integer.getInteger("lox.parse.chunk", 1 << 16);
+
+    // pieces never report anything, we only need to know there was an error
+    private static final ErrorSink IGNORE = new ErrorSink()
+    {
+        @Override
+        public void error(int line, String where, String message)
+        {
+        }
+
+        @Override
+        public void runtimeError(int line, String message)
+        {
+        }
+    };
+
+    private final String m_source;
+    // tokens scanned over all the pieces
+    int m_tokens = 0;
+    // the pieces' tables one after the other, for the whole source
+    LineTable m_lines;
+
+    ParallelParser(String l_source)
+    {
+        this.m_source = l_source;
+    }
+
+    /**
+     * @return the statements of the whole source, or null if any piece had
+     * a syntax error, nothing has been reported then
+     */
+    List<Stmt> parse()
+    {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        // a few pieces per worker so one slow piece does not hold up the rest
+        int chunk = Math.max(MIN_CHUNK, m_source.length() / (pool.getParallelism() * 4));
+        List<int[]> pieces = split(chunk);
+
+        List<ForkJoinTask<Piece>> tasks = new ArrayList<>(pieces.size());
+        for(int i = 0; i < pieces.size(); i++)
+        {
+            int start = pieces.get(i)[0];
+            int line = pieces.get(i)[1];
+            int end = i + 1 < pieces.size() ? pieces.get(i + 1)[0] : m_source.length();
+            tasks.add(pool.submit(() -> parse(start, end, line)));
+        }
+
+        List<Stmt> statements = new ArrayList<>();
+        boolean hadError = false;
+        for(ForkJoinTask<Piece> task : tasks)
+        {
+            Piece piece = task.join();
+            m_tokens += piece.m_tokens;
+            if(m_lines == null) m_lines = piece.m_lines;
+            else m_lines.append(piece.m_lines);
+            hadError |= piece.m_hadError;
+            if(!hadError) statements.addAll(piece.m_statements);
+        }
+        return hadError ? null : statements;
+    }
+
+    private static class Piece
+    {
+        List<Stmt> m_statements;
+        LineTable m_lines;
+        int m_tokens;
+        boolean m_hadError;
+    }
+
+    private Piece parse(int start, int end, int line)
+    {
+        ErrorReporter errors = new ErrorReporter(IGNORE);
+        TokenBuffer tokens = new Lexer(m_source, start, end, line, errors).scanBuffer();
+        Piece piece = new Piece();
+        piece.m_tokens = tokens.size();
+        piece.m_lines = tokens.m_lineTable;
+        // a lexer error is enough, no need to parse
+        if(!errors.m_hadError) piece.m_statements = new Parser(tokens, errors).parse();
+        piece.m_hadError = errors.m_hadError;
+        return piece;
+    }
+
+    /**
+     * @return start offset and line of each piece, the first starts at 0,
+     * every other one right after a statement ends at least chunk chars
+     * after the start of the one before
+     */
+    List<int[]> split(int chunk)
+    {
+        List<int[]> pieces = new ArrayList<>();
+        pieces.add(new int[] { 0, 1 });
+        StatementScanner scanner = new StatementScanner(m_source);
+        int start = 0;
+        int cut = 0;
+        while((cut = scanner.next(cut)) != -1)
+        {
+            if(cut - start >= chunk)
+            {
+                pieces.add(new int[] { cut, scanner.m_line });
+                start = cut;
+            }
+        }
+        return pieces;
+    }
+}
@@ -11,12 +11,25 @@ public class Parser
 {
     private static class ParseError extends RuntimeException{}
     
-    private final List<Token> m_tokens;// list of tokens
+    private final TokenBuffer m_tokens;// all the tokens, packed
     private int m_current = 0;
+    private final ErrorReporter m_errors;
+    // added to every offset that goes in the tree
+    private final int m_base;
 
-    Parser(List<Token> l_tokens)
+    Parser(TokenBuffer l_tokens, ErrorReporter l_errors)
+    {
+        this(l_tokens, l_errors, 0);
+    }
+
+    /**
+     * for IncrementalParser, whose trees count offsets from l_base
+     */
+    Parser(TokenBuffer l_tokens, ErrorReporter l_errors, int l_base)
     {
         this.m_tokens = l_tokens;
+        this.m_errors = l_errors;
+        this.m_base = l_base;
     }
 
     //this is the entry point of parsing the tokens
@@ -46,7 +59,8 @@ public class Parser
     {
         try
         {
-            if(match(TokenType.VAR)) return varDeclaration();
+            int line = m_tokens.line(m_current);
+            if(match(TokenType.VAR)) return at(varDeclaration(), line);
             //else
             return statement();
         }
@@ -59,7 +73,9 @@ public class Parser
 
     private Stmt varDeclaration()
     {
-        Token name = consume(TokenType.IDENTIFIER, "Expect variable name.");
+        consume(TokenType.IDENTIFIER, "Expect variable name.");
+        String name = previousName();
+        int offset = previousOffset();
 
         Expr initializer = null;
         if(match(TokenType.EQUAL))
@@ -69,19 +85,29 @@ public class Parser
 
         consume(TokenType.SEMICOLON, "Expect ';' after variable declaration.");
 
-        return new Stmt.Var(name, initializer);
+        return new Stmt.Var(name, offset, initializer);
     }
 
     private Stmt statement()
     {
-        if(match(TokenType.PRINT)) return printStatement();
-        if(match(TokenType.IF)) return IfStatement(); 
-        if(match(TokenType.FOR)) return ForStatement();
-        if(match(TokenType.WHILE)) return WhileStatement();
-        if(match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
+        int line = m_tokens.line(m_current);
+        if(match(TokenType.PRINT)) return at(printStatement(), line);
+        if(match(TokenType.IF)) return at(IfStatement(), line);
+        if(match(TokenType.FOR)) return ForStatement(line);
+        if(match(TokenType.WHILE)) return at(WhileStatement(), line);
+        if(match(TokenType.LEFT_BRACE)) return at(new Stmt.Block(block()), line);
 
         //else
-        return expressionStatement();
+        return at(expressionStatement(), line);
+    }
+
+    /**
+     * every statement knows the line it starts on, the profiler reports by it
+     */
+    private static Stmt at(Stmt stmt, int line)
+    {
+        stmt.line = line;
+        return stmt;
     }
 
     private Stmt printStatement()
@@ -112,10 +138,11 @@ public class Parser
     // we are goint to 'desugar' for loop to while loop
     // meaning we are not goin to write a new syntax node for 'for loop'
     // we'll just delegate its work to while loop which we have already implemented
-    private Stmt ForStatement()
+    private Stmt ForStatement(int line)
     {
         consume(TokenType.LEFT_PAREN,"Expect '(' after 'for'.");
 
+        // all the statements we make up here are on the line of the for
         Stmt initializer;
         if(match(TokenType.SEMICOLON))
         {
@@ -123,11 +150,11 @@ public class Parser
         }
         else if(match(TokenType.VAR))
         {
-            initializer = varDeclaration();
+            initializer = at(varDeclaration(), line);
         }
         else
         {
-            initializer = expressionStatement();
+            initializer = at(expressionStatement(), line);
         }
 
         Expr condition = null;
@@ -147,7 +174,7 @@ public class Parser
         Expr increment = null;
         // we do the same as we did for checking if the condition is ommitted 
         // for increment
-        if(!check(TokenType.LEFT_PAREN))
+        if(!check(TokenType.RIGHT_PAREN))
         {
             increment = expression();
         }
@@ -160,21 +187,21 @@ public class Parser
         // we are basically adding increment to the end of the body
         if(increment != null)
         {
-            body = new Stmt.Block(
-                Arrays.asList(body, new Stmt.Expression(increment)));
+            body = at(new Stmt.Block(
+                Arrays.asList(body, at(new Stmt.Expression(increment), line))), line);
         }
 
         // if user skipped condition then we assuem that the condition
         // is always true
         if(condition  == null) condition = new Expr.Literal(true);
         // then we build the loop using while loop 
-        body = new Stmt.While(condition,body);
+        body = at(new Stmt.While(condition,body), line);
 
         // at last if we have the initialiser 
         // then we put it before the while loop
         if(initializer != null)
         {
-            body = new Stmt.Block(Arrays.asList(initializer,body));
+            body = at(new Stmt.Block(Arrays.asList(initializer,body)), line);
         }
         
         return body;
@@ -225,8 +252,8 @@ public class Parser
 
             if(expr instanceof Expr.Variable)
             {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
+                Expr.Variable name = (Expr.Variable)expr;
+                return new Expr.Assign(name.name, name.offset, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -241,10 +268,9 @@ public class Parser
 
         while(match(TokenType.OR))
         {
-            Token operator = previous();
             Expr right = and();
             
-            expr = new Expr.Logical(expr, operator, right);
+            expr = new Expr.Logical(expr, TokenType.OR, right);
         }
 
         return expr;
@@ -256,9 +282,8 @@ public class Parser
 
         while(match(TokenType.AND))
         {
-            Token operator = previous();
             Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+            expr = new Expr.Logical(expr, TokenType.AND, right);
         }
         return expr;
     }
@@ -271,9 +296,10 @@ public class Parser
         // we loop till we keep seeign the equality operators
         while(match(TokenType.BANG_EQUAL,TokenType.EQUAL_EQUAL))
         {
-            Token l_operator = previous();
+            TokenType l_operator = previousType();
+            int l_offset = previousOffset();
             Expr l_right = comparision();
-            l_expr = new Expr.Binary(l_expr, l_operator, l_right);
+            l_expr = new Expr.Binary(l_expr, l_operator, l_offset, l_right);
         }
 
         return l_expr;
@@ -285,9 +311,10 @@ public class Parser
 
         while(match(TokenType.GREATER,TokenType.GREATER_EQUAL,TokenType.LESS,TokenType.LESS_EQUAL))
         {
-            Token l_operator = previous();
+            TokenType l_operator = previousType();
+            int l_offset = previousOffset();
             Expr l_right = term();
-            l_expr = new Expr.Binary(l_expr, l_operator, l_right);
+            l_expr = new Expr.Binary(l_expr, l_operator, l_offset, l_right);
         }
 
         return l_expr;  
@@ -299,9 +326,10 @@ public class Parser
         
         while(match(TokenType.MINUS,TokenType.PLUS))
         {
-            Token l_operator = previous();
+            TokenType l_operator = previousType();
+            int l_offset = previousOffset();
             Expr l_right = factor();
-            l_expr = new Expr.Binary(l_expr,l_operator,l_right);
+            l_expr = new Expr.Binary(l_expr, l_operator, l_offset, l_right);
         }
 
         return l_expr;
@@ -313,9 +341,10 @@ public class Parser
 
         while(match(TokenType.SLASH, TokenType.STAR))
         {
-            Token l_operator = previous();
+            TokenType l_operator = previousType();
+            int l_offset = previousOffset();
             Expr l_right = unary();
-            l_expr = new Expr.Binary(l_expr, l_operator, l_right);
+            l_expr = new Expr.Binary(l_expr, l_operator, l_offset, l_right);
         }
 
         return l_expr;
@@ -325,9 +354,10 @@ public class Parser
     {
         if(match(TokenType.BANG,TokenType.MINUS))
         {
-            Token l_operator = previous();
+            TokenType l_operator = previousType();
+            int l_offset = previousOffset();
             Expr l_right = unary();
-            return new Expr.Unary(l_operator,l_right);
+            return new Expr.Unary(l_operator, l_offset, l_right);
         }
 
         return primary();
@@ -341,11 +371,11 @@ public class Parser
 
         if(match(TokenType.NUMBER,TokenType.STRING))
         {
-            return new Expr.Literal(previous().m_literal);
+            return new Expr.Literal(m_tokens.literal(m_current - 1));
         }
         if(match(TokenType.IDENTIFIER))
         {
-            return new Expr.Variable(previous());
+            return new Expr.Variable(previousName(), previousOffset());
         }
         if(match(TokenType.LEFT_PAREN))
         {
@@ -383,52 +413,83 @@ public class Parser
     private boolean check(TokenType l_type)
     {
         if(isAtEnd()) return false;
-        return peek().m_type == l_type;
+        return m_tokens.type(m_current) == l_type;
     }
 
     /**
-     * consumes the current token and returns it
+     * consumes the current token
      * that is increase the current token counter
      */
-    private Token advance()
+    private void advance()
     {
         if(!isAtEnd())m_current++;
-        return previous();
+        // we only ever look back one token, a streaming
+        // buffer can forget everything before that
+        m_tokens.release(m_current - 1);
     }
 
     private boolean isAtEnd()
     {
-        return peek().m_type == TokenType.EOF;
+        return m_tokens.type(m_current) == TokenType.EOF;
     }
 
     /**
-     * 
+     * this makes a Token object so only call it for errors,
+     * the tree keeps what previousType/Offset/Name give
      * @return Next token
      */
     private Token peek()
     {
-        return m_tokens.get(m_current);
+        return m_tokens.token(m_current);
     }
 
+    /**
+     * same as peek, this makes a Token object
+     */
     private Token previous()
     {
-        return m_tokens.get(m_current - 1);
+        return m_tokens.token(m_current - 1);
+    }
+
+    /**
+     * what the tree keeps of a token instead of the Token
+     */
+    private TokenType previousType()
+    {
+        return m_tokens.type(m_current - 1);
+    }
+
+    private int previousOffset()
+    {
+        return m_base + m_tokens.start(m_current - 1);
+    }
+
+    /**
+     * the symbol table's String, every node naming it shares the one
+     */
+    private String previousName()
+    {
+        return m_tokens.lexeme(m_current - 1);
     }
 
     /**
      * checks to see if the next type is of expected type
      * thows an error exception if its not
      */
-    private Token consume(TokenType l_type, String l_message)
+    private void consume(TokenType l_type, String l_message)
     {
-        if(check(l_type)) return advance();
+        if(check(l_type))
+        {
+            advance();
+            return;
+        }
 
         throw error(peek(),l_message);
     }
 
     private ParseError error(Token l_token, String l_message)
     {
-        Lox.error(l_token, l_message);
+        m_errors.error(l_token, l_message);
         return new ParseError();
     }
 
@@ -438,9 +499,9 @@ public class Parser
 
         while(!isAtEnd())
         {
-            if(previous().m_type == TokenType.SEMICOLON) return;
+            if(m_tokens.type(m_current - 1) == TokenType.SEMICOLON) return;
             
-            switch(peek().m_type)
+            switch(m_tokens.type(m_current))
             {
                 case TokenType.CLASS :
                 case TokenType.FUN:
@@ -0,0 +1,140 @@
+package lox;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Where print statements go. Lines are put together straight in a big
+ * char buffer which is only written out when it is full or somebody
+ * calls flush, instead of one synchronized, flushed println per line.
+ * The interpreters flush at the end of a run and before reporting a
+ * runtime error, the REPL before every prompt.
+ * The buffer is -Dlox.out.buffer chars, 64k if not given.
+ */
+class PrintSink
+{
+    private static final int SIZE = Integer.getInteger("lox.out.buffer", 1 << 16);
+    private static final String NEWLINE = System.lineSeparator();
+    // Double.toString switches to 1.0E7 style from here on
+    private static final double PLAIN_LIMIT = 1e7;
+
+    private final Writer m_out;
+    private final char[] m_buffer;
+    private int m_length = 0;
+
+    PrintSink(PrintStream l_out)
+    {
+        this(l_out, SIZE);
+    }
+
+    PrintSink(PrintStream l_out, int l_size)
+    {
+        // same encoding the stream would have used for println
+        this.m_out = new OutputStreamWriter(l_out, l_out.charset());
+        this.m_buffer = new char[Math.max(l_size, 32)];
+    }
+
+    /**
+     * what a print statement does, value the way stringify has it and a newline
+     */
+    void println(Object value)
+    {
+        if(value instanceof Double) number((double)value);
+        else text(Interpreter.stringify(value));
+        text(NEWLINE);
+    }
+
+    void flush()
+    {
+        drain();
+        try
+        {
+            m_out.flush();
+        }
+        catch(IOException error)
+        {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * Whole numbers below 1e7 are most of what scripts print, those we
+     * write digit by digit. Same text as stringify, which is what
+     * Double.toString gives minus the ".0".
+     */
+    private void number(double value)
+    {
+        long whole = (long)value;
+        if(whole != value || Math.abs(value) >= PLAIN_LIMIT)
+        {
+            text(Interpreter.stringify(value));
+            return;
+        }
+
+        // a sign and seven digits at most
+        if(m_length + 8 > m_buffer.length) drain();
+        if(whole < 0 || (whole == 0 && 1 / value < 0))
+        {
+            m_buffer[m_length++] = '-';
+            whole = -whole;
+        }
+        int digits = 1;
+        for(long rest = whole / 10; rest != 0; rest /= 10) digits++;
+        int at = m_length + digits;
+        do
+        {
+            m_buffer[--at] = (char)('0' + whole % 10);
+            whole /= 10;
+        }
+        while(whole != 0);
+        m_length += digits;
+    }
+
+    private void text(String text)
+    {
+        int length = text.length();
+        if(m_length + length > m_buffer.length)
+        {
+            drain();
+            if(length > m_buffer.length)
+            {
+                // bigger than the whole buffer, no point copying it in
+                write(text);
+                return;
+            }
+        }
+        text.getChars(0, length, m_buffer, m_length);
+        m_length += length;
+    }
+
+    /**
+     * hands the buffer to the writer without flushing the stream
+     */
+    private void drain()
+    {
+        try
+        {
+            m_out.write(m_buffer, 0, m_length);
+            m_length = 0;
+        }
+        catch(IOException error)
+        {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    private void write(String text)
+    {
+        try
+        {
+            m_out.write(text);
+        }
+        catch(IOException error)
+        {
+            throw new UncheckedIOException(error);
+        }
+    }
+}
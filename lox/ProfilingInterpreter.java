@@ -0,0 +1,200 @@
+package lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The Interpreter with --profile on. Every statement that runs is
+ * counted and timed, time spent evaluating expressions is counted in
+ * the statement that evaluates them.
+ * This is a subclass so that without --profile it is never loaded, the
+ * JIT then sees only the one execute() and inlines it like before.
+ */
+class ProfilingInterpreter extends Interpreter
+{
+    /**
+     * A statement in the place it ran from. Lox has no functions, so a
+     * statement only ever runs from one place and this is its total too.
+     */
+    private static class Node
+    {
+        final Stmt m_stmt;
+        final Node m_parent;
+        final Map<Stmt, Node> m_children = new IdentityHashMap<>();
+        long m_count;
+        long m_nanos;      // inclusive
+        long m_childNanos; // the part of m_nanos spent in nested statements
+
+        Node(Stmt l_stmt, Node l_parent)
+        {
+            this.m_stmt = l_stmt;
+            this.m_parent = l_parent;
+        }
+
+        Node child(Stmt stmt)
+        {
+            Node child = m_children.get(stmt);
+            if(child == null)
+            {
+                child = new Node(stmt, this);
+                m_children.put(stmt, child);
+            }
+            return child;
+        }
+
+        long selfNanos()
+        {
+            return m_nanos - m_childNanos;
+        }
+
+        String name()
+        {
+            String kind = m_stmt.getClass().getSimpleName().toLowerCase(Locale.ROOT);
+            if(m_stmt instanceof Stmt.Var) kind += " " + ((Stmt.Var)m_stmt).name;
+            return kind + "@" + m_stmt.line;
+        }
+    }
+
+    private static final int TOP = 20;
+
+    private final Node m_root = new Node(null, null);
+    private Node m_current = m_root;
+
+    ProfilingInterpreter(ErrorReporter l_errors, PrintSink l_out)
+    {
+        super(l_errors, l_out);
+        // compiled loops would not go through execute at all
+        m_tiering = false;
+    }
+
+    /**
+     * Callers only ever hold it as an Interpreter. Putting a
+     * ProfilingInterpreter in an Interpreter field makes the verifier
+     * load the class to check it is one, on every run.
+     */
+    static Interpreter create(ErrorReporter errors, PrintSink out)
+    {
+        return new ProfilingInterpreter(errors, out);
+    }
+
+    /**
+     * report for an interpreter create made
+     */
+    static void report(Interpreter profiler, PrintStream out, Path folded)
+    {
+        ((ProfilingInterpreter)profiler).report(out, folded);
+    }
+
+    @Override
+    void execute(Stmt stmt)
+    {
+        Node node = m_current.child(stmt);
+        m_current = node;
+        long start = System.nanoTime();
+        try
+        {
+            super.execute(stmt);
+        }
+        finally
+        {
+            long elapsed = System.nanoTime() - start;
+            node.m_count++;
+            node.m_nanos += elapsed;
+            node.m_parent.m_childNanos += elapsed;
+            m_current = node.m_parent;
+        }
+    }
+
+    /**
+     * prints the hotspot tables and writes the folded stacks to folded
+     */
+    void report(PrintStream out, Path folded)
+    {
+        List<Node> nodes = new ArrayList<>();
+        collect(m_root, nodes);
+
+        nodes.sort(Comparator.comparingLong(Node::selfNanos).reversed());
+        out.println("[profile] statements by self time");
+        out.printf("%12s %12s %12s  %s%n", "self ms", "total ms", "count", "statement");
+        for(Node node : nodes.subList(0, Math.min(TOP, nodes.size())))
+        {
+            out.printf("%12.3f %12.3f %12d  %s%n",
+                millis(node.selfNanos()), millis(node.m_nanos), node.m_count, node.name());
+        }
+
+        // a line's total only counts the outermost statement on that line,
+        // or `while (x) x = x - 1;` would be counted twice
+        Map<Integer, long[]> lines = new TreeMap<>();
+        for(Node node : nodes)
+        {
+            long[] line = lines.computeIfAbsent(node.m_stmt.line, key -> new long[3]);
+            line[0] += node.m_count;
+            line[1] += node.selfNanos();
+            if(node.m_parent.m_stmt == null || node.m_parent.m_stmt.line != node.m_stmt.line)
+            {
+                line[2] += node.m_nanos;
+            }
+        }
+        List<Map.Entry<Integer, long[]>> byTime = new ArrayList<>(lines.entrySet());
+        byTime.sort(Comparator.comparingLong((Map.Entry<Integer, long[]> entry) -> entry.getValue()[1]).reversed());
+        out.println("[profile] lines by self time");
+        out.printf("%12s %12s %12s  %s%n", "self ms", "total ms", "count", "line");
+        for(Map.Entry<Integer, long[]> entry : byTime.subList(0, Math.min(TOP, byTime.size())))
+        {
+            long[] line = entry.getValue();
+            out.printf("%12.3f %12.3f %12d  %d%n", millis(line[1]), millis(line[2]), line[0], entry.getKey());
+        }
+
+        try(PrintWriter writer = new PrintWriter(Files.newBufferedWriter(folded)))
+        {
+            for(Node child : m_root.m_children.values())
+            {
+                fold(child, "lox", writer);
+            }
+            out.println("[profile] folded stacks in " + folded);
+        }
+        catch(IOException error)
+        {
+            out.println("[profile] could not write " + folded + ": " + error.getMessage());
+        }
+    }
+
+    private static void collect(Node node, List<Node> nodes)
+    {
+        for(Node child : node.m_children.values())
+        {
+            nodes.add(child);
+            collect(child, nodes);
+        }
+    }
+
+    /**
+     * one line per statement: the statements it ran inside, then its
+     * self time in microseconds, which is what flamegraph.pl reads
+     */
+    private static void fold(Node node, String stack, PrintWriter writer)
+    {
+        String path = stack + ";" + node.name();
+        long micros = node.selfNanos() / 1000;
+        if(micros > 0) writer.println(path + " " + micros);
+        for(Node child : node.m_children.values())
+        {
+            fold(child, path, writer);
+        }
+    }
+
+    private static double millis(long nanos)
+    {
+        return nanos / 1e6;
+    }
+}
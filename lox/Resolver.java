@@ -0,0 +1,221 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs once over the tree after parsing and before interpreting.
+ * For every local variable it works out how many blocks up it lives
+ * (depth) and where inside that block's frame it is (slot), so the
+ * interpreter never has to look a local up by name.
+ * Anything not found in a block scope is left at depth -1 which means
+ * global, globals are looked up by name because the REPL relies on
+ * redefining them. The interpreter keeps the cell it found on the node.
+ */
+class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+{
+    // one map per block we are inside of, name -> slot
+    private final List<Map<String, Integer>> m_scopes = new ArrayList<>();
+    // every statement and expression we went over
+    int m_nodes = 0;
+
+    void resolve(List<Stmt> statements)
+    {
+        for(Stmt statement : statements)
+        {
+            resolve(statement);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt)
+    {
+        // a block that declares nothing gets no scope at all, names in it
+        // resolve as if the braces were not there. slots stays 0 and every
+        // backend takes that to mean there is no frame to make
+        if(!declaresAnything(stmt))
+        {
+            stmt.slots = 0;
+            resolve(stmt.statements);
+            return null;
+        }
+
+        beginScope();
+        resolve(stmt.statements);
+        stmt.slots = m_scopes.get(m_scopes.size() - 1).size();
+        endScope();
+        return null;
+    }
+
+    /**
+     * only var statements straight in the block count,
+     * nested blocks get their own scope
+     */
+    private static boolean declaresAnything(Stmt.Block stmt)
+    {
+        for(Stmt statement : stmt.statements)
+        {
+            if(statement instanceof Stmt.Var) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt)
+    {
+        // initializer first, so in `var a = a;` the right hand side
+        // still sees the outer a, same as before we had a resolver
+        if(stmt.initializer != null)
+        {
+            resolve(stmt.initializer);
+        }
+
+        stmt.slot = declare(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt)
+    {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if(stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        resolve(stmt.condition);
+        resolve(stmt.body);
+        stmt.counted = CountedLoop.recognize(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt)
+    {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr)
+    {
+        resolve(expr.value);
+        for(int i = m_scopes.size() - 1; i >= 0; i--)
+        {
+            Integer slot = m_scopes.get(i).get(expr.name);
+            if(slot != null)
+            {
+                expr.depth = m_scopes.size() - 1 - i;
+                expr.slot = slot;
+                return null;
+            }
+        }
+        // not found so it is global
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr)
+    {
+        for(int i = m_scopes.size() - 1; i >= 0; i--)
+        {
+            Integer slot = m_scopes.get(i).get(expr.name);
+            if(slot != null)
+            {
+                expr.depth = m_scopes.size() - 1 - i;
+                expr.slot = slot;
+                return null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr)
+    {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr)
+    {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr)
+    {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr)
+    {
+        resolve(expr.right);
+        return null;
+    }
+
+    private void resolve(Stmt stmt)
+    {
+        m_nodes++;
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr)
+    {
+        m_nodes++;
+        expr.accept(this);
+    }
+
+    private void beginScope()
+    {
+        m_scopes.add(new HashMap<>());
+    }
+
+    private void endScope()
+    {
+        m_scopes.remove(m_scopes.size() - 1);
+    }
+
+    /**
+     * @return the slot for the name in the innermost block or -1 at top level
+     */
+    private int declare(String name)
+    {
+        if(m_scopes.isEmpty()) return -1;
+
+        Map<String, Integer> scope = m_scopes.get(m_scopes.size() - 1);
+        // redeclaring in the same block just reuses the slot
+        // same as define() letting you overwrite a name
+        Integer slot = scope.get(name);
+        if(slot == null)
+        {
+            slot = scope.size();
+            scope.put(name, slot);
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,142 @@
+package lox;
+
+import java.util.ArrayDeque;
+
+/**
+ * A Lox string made by + that has not been copied together yet.
+ * Lox strings are either a java String or one of these. Building a
+ * string up in a loop, s = s + x, only makes a new node each time
+ * instead of copying all of s again, and the chars are put together once
+ * when somebody needs the real thing: printing it, comparing it or
+ * anything else that calls toString.
+ * Short results are still just copied, a node costs more than that.
+ */
+final class Rope implements CharSequence
+{
+    // concatenations shorter than this make a plain String
+    private static final int MIN_LENGTH = 64;
+
+    private Object m_left;  // String or Rope, null once flattened
+    private Object m_right;
+    private final int m_length;
+    private String m_flat;
+
+    private Rope(Object l_left, Object l_right, int l_length)
+    {
+        this.m_left = l_left;
+        this.m_right = l_right;
+        this.m_length = l_length;
+    }
+
+    /**
+     * @return true for anything Lox thinks of as a string
+     */
+    static boolean isString(Object value)
+    {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    /**
+     * left + right, both have to be strings
+     * @param offset where the + is, for the error when it gets too long
+     */
+    static Object concat(Object left, Object right, int offset)
+    {
+        int leftLength = ((CharSequence)left).length();
+        int rightLength = ((CharSequence)right).length();
+        if(leftLength == 0) return right;
+        if(rightLength == 0) return left;
+
+        long length = (long)leftLength + rightLength;
+        // the same limit a String has
+        if(length > Integer.MAX_VALUE - 8) throw new RuntimeError(offset, "String too long.");
+        if(length < MIN_LENGTH) return left.toString() + right.toString();
+        return new Rope(left, right, (int)length);
+    }
+
+    /**
+     * == on two strings. Different lengths never get flattened and two
+     * Strings that have been compared before have their hashes cached,
+     * so most unequal pairs are told apart without looking at the chars.
+     */
+    static boolean equal(Object a, Object b)
+    {
+        if(a == b) return true;
+        if(((CharSequence)a).length() != ((CharSequence)b).length()) return false;
+
+        String left = a.toString();
+        String right = b.toString();
+        if(left.hashCode() != right.hashCode()) return false;
+        return left.equals(right);
+    }
+
+    /**
+     * @return value with any Rope turned into a String, for handing
+     * values to code outside the interpreter
+     */
+    static Object flatten(Object value)
+    {
+        return value instanceof Rope ? value.toString() : value;
+    }
+
+    @Override
+    public int length()
+    {
+        return m_length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString()
+    {
+        if(m_flat == null)
+        {
+            m_flat = new String(copyPieces());
+            // the pieces are not needed anymore
+            m_left = null;
+            m_right = null;
+        }
+        return m_flat;
+    }
+
+    /**
+     * Copies every piece in, last one first. That keeps the stack short
+     * for s = s + x, where each node's left is the one before it; a
+     * string built up by prepending makes it deep but it is on the heap.
+     */
+    private char[] copyPieces()
+    {
+        char[] chars = new char[m_length];
+        int end = m_length;
+        ArrayDeque<Object> pending = new ArrayDeque<>();
+        pending.push(this);
+        while(!pending.isEmpty())
+        {
+            Object piece = pending.pop();
+            if(piece instanceof Rope && ((Rope)piece).m_flat == null)
+            {
+                Rope rope = (Rope)piece;
+                pending.push(rope.m_left);
+                pending.push(rope.m_right);
+            }
+            else
+            {
+                String text = piece.toString();
+                end -= text.length();
+                text.getChars(0, text.length(), chars, end);
+            }
+        }
+        return chars;
+    }
+}
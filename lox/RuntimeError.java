@@ -2,11 +2,13 @@ package lox;
 
 public class RuntimeError extends RuntimeException
 {
-    final Token m_token;
+    // where in the source it went wrong, ErrorReporter finds the line
+    final int m_offset;
 
-    RuntimeError(Token l_token, String l_message)
+    RuntimeError(int l_offset, String l_message)
     {
         super(l_message);
-        this.m_token = l_token;
+        this.m_offset = l_offset;
+        LoxMetrics.m_runtimeErrors.increment();
     }
 }
@@ -0,0 +1,222 @@
+package lox;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Lox program parsed, optimized and resolved once, ready to run as
+ * often as you like from as many threads as you like. This is the way
+ * in for anyone embedding Lox:
+ *
+ *   Script script = Script.compile(source, ErrorSink.printingTo(System.err));
+ *   if(script != null) script.run(System.out, ErrorSink.printingTo(System.err));
+ *
+ * Every run gets its own Interpreter, globals, output and ErrorSink.
+ * What runs do share is what the Interpreter learns on the way, which
+ * operands each Binary/Unary site sees and the counts and compiled code
+ * of hot loops live on the nodes. Those are only hints that get checked
+ * before they are used, two threads racing on one just makes a run slower.
+ */
+public final class Script
+{
+    private final List<Stmt> m_statements;
+    // the tree only has offsets, runtime errors get their lines from here
+    private final LineTable m_lines;
+
+    private Script(List<Stmt> l_statements, LineTable l_lines)
+    {
+        this.m_statements = Collections.unmodifiableList(l_statements);
+        this.m_lines = l_lines;
+    }
+
+    /**
+     * @return the script, or null if it had syntax errors, those went to errors
+     */
+    public static Script compile(String source, ErrorSink errors)
+    {
+        ErrorReporter reporter = new ErrorReporter(errors);
+        List<Stmt> statements = null;
+        if(source.length() >= ParallelParser.MIN_SOURCE) statements = compileParallel(source, reporter);
+        if(statements == null) statements = compile(lex(source, reporter), reporter);
+        return statements == null ? null : new Script(statements, reporter.m_lines);
+    }
+
+    /**
+     * runs the script with globals of its own
+     * @return false if it stopped on a runtime error, that went to errors
+     */
+    public boolean run(PrintStream out, ErrorSink errors)
+    {
+        return run(new HashMap<>(), out, errors);
+    }
+
+    /**
+     * Runs the script with globals as its global variables. Put values in
+     * first to hand them to the script and read what it left there after,
+     * values are Double, String, Boolean or null. The script works on a
+     * copy and what it defined is put back once it is done, strings
+     * flattened into real Strings.
+     * @return false if it stopped on a runtime error, that went to errors
+     */
+    public boolean run(Map<String, Object> globals, PrintStream out, ErrorSink errors)
+    {
+        ErrorReporter reporter = new ErrorReporter(errors);
+        reporter.m_lines = m_lines;
+        Environment environment = new Environment(globals);
+        Interpreter interpreter = new Interpreter(environment, reporter, new PrintSink(out));
+        try
+        {
+            execute("interpreter", reporter, () -> interpreter.interpret(m_statements));
+        }
+        finally
+        {
+            environment.copyTo(globals);
+        }
+        return !reporter.m_hadRuntimeError;
+    }
+
+    /**
+     * @param statements already optimized and resolved, they are kept
+     * as they are and not copied
+     */
+    static Script fromResolved(List<Stmt> statements, LineTable lines)
+    {
+        return new Script(statements, lines);
+    }
+
+    /**
+     * scans the whole source up front
+     */
+    static TokenBuffer lex(String source, ErrorReporter errors)
+    {
+        LoxEvents.Lex event = LoxEvents.ENABLED ? new LoxEvents.Lex() : null;
+        if(event != null) event.begin();
+        long start = System.nanoTime();
+        TokenBuffer tokens = new Lexer(source, errors).scanBuffer();
+        LoxMetrics.m_lexNanos.add(System.nanoTime() - start);
+        if(event != null)
+        {
+            event.end();
+            event.tokens = tokens.size();
+            event.commit();
+        }
+        return tokens;
+    }
+
+    /**
+     * parses, optimizes and resolves, errors gets the LineTable of the tokens
+     * @return the statements ready to run, null if there was a syntax error
+     */
+    static List<Stmt> compile(TokenBuffer tokens, ErrorReporter errors)
+    {
+        // when streaming the lexer is still filling it in, it is done by
+        // the time anything runs
+        errors.m_lines = tokens.m_lineTable;
+        LoxEvents.Parse event = LoxEvents.ENABLED ? new LoxEvents.Parse() : null;
+        if(event != null) event.begin();
+        long start = System.nanoTime();
+        Parser parser = new Parser(tokens, errors);
+        List<Stmt> statements = parser.parse();
+        LoxMetrics.m_parseNanos.add(System.nanoTime() - start);
+        // when streaming this is also all the lexer ever made
+        LoxMetrics.m_tokens.add(tokens.size());
+        if(event != null)
+        {
+            event.end();
+            event.tokens = tokens.size();
+        }
+        if(errors.m_hadError)
+        {
+            if(event != null)
+            {
+                event.syntaxError = true;
+                event.commit();
+            }
+            return null;
+        }
+        return resolve(statements, event);
+    }
+
+    /**
+     * compile for big sources, lexes and parses in pieces on all cores
+     * @param errors only gets the LineTable of the source
+     * @return the statements ready to run, null if there was a syntax error.
+     * Nothing is reported, parse it again the usual way for the errors to
+     * come out as they always have
+     */
+    static List<Stmt> compileParallel(String source, ErrorReporter errors)
+    {
+        LoxEvents.Parse event = LoxEvents.ENABLED ? new LoxEvents.Parse() : null;
+        if(event != null) event.begin();
+        long start = System.nanoTime();
+        ParallelParser parser = new ParallelParser(source);
+        List<Stmt> statements = parser.parse();
+        if(statements == null)
+        {
+            if(event != null)
+            {
+                event.end();
+                event.syntaxError = true;
+                event.commit();
+            }
+            return null;
+        }
+        LoxMetrics.m_parseNanos.add(System.nanoTime() - start);
+        errors.m_lines = parser.m_lines;
+        LoxMetrics.m_tokens.add(parser.m_tokens);
+        if(event != null)
+        {
+            event.end();
+            event.tokens = parser.m_tokens;
+        }
+        return resolve(statements, event);
+    }
+
+    /**
+     * @param event null when there are no events
+     */
+    private static List<Stmt> resolve(List<Stmt> statements, LoxEvents.Parse event)
+    {
+        statements = new Optimizer().optimize(statements);
+        Resolver resolver = new Resolver();
+        resolver.resolve(statements);
+        LoxMetrics.m_nodes.add(resolver.m_nodes);
+        if(event != null)
+        {
+            event.nodes = resolver.m_nodes;
+            event.commit();
+        }
+        return statements;
+    }
+
+    /**
+     * runs body as one script on backend, timed and counted
+     */
+    static void execute(String backend, ErrorReporter errors, Runnable body)
+    {
+        LoxEvents.Interpret event = LoxEvents.ENABLED ? new LoxEvents.Interpret() : null;
+        if(event != null)
+        {
+            event.backend = backend;
+            event.begin();
+        }
+        long start = System.nanoTime();
+        try
+        {
+            body.run();
+        }
+        finally
+        {
+            LoxMetrics.m_interpretNanos.add(System.nanoTime() - start);
+            LoxMetrics.m_scripts.increment();
+            if(event != null)
+            {
+                event.runtimeError = errors.m_hadRuntimeError;
+                event.commit();
+            }
+        }
+    }
+}
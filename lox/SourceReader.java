@@ -0,0 +1,133 @@
+package lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * The characters the lexer reads from. Either the whole text is here up
+ * front, or it is pulled from a Reader a block at a time and only the
+ * part from the start of the current lexeme onwards is kept.
+ * Indexes are always absolute offsets into the whole source.
+ */
+class SourceReader implements CharSequence
+{
+    private final Reader m_reader; // null when we got the whole text at once
+    private char[] m_chars;
+    private int m_base = 0;  // absolute offset of m_chars[0]
+    private int m_limit = 0; // how many chars in m_chars are filled
+    private int m_keep = 0;  // nothing before this offset is needed anymore
+    private boolean m_eof;
+
+    SourceReader(String l_text)
+    {
+        this.m_reader = null;
+        this.m_chars = l_text.toCharArray();
+        this.m_limit = m_chars.length;
+        this.m_eof = true;
+    }
+
+    /**
+     * just the chars from start to end, indexes still count from
+     * the start of all of text
+     */
+    SourceReader(String l_text, int l_start, int l_end)
+    {
+        this.m_reader = null;
+        this.m_chars = new char[l_end - l_start];
+        l_text.getChars(l_start, l_end, m_chars, 0);
+        this.m_base = l_start;
+        this.m_keep = l_start;
+        this.m_limit = m_chars.length;
+        this.m_eof = true;
+    }
+
+    SourceReader(Reader l_reader)
+    {
+        this.m_reader = l_reader;
+        this.m_chars = new char[8192];
+        this.m_eof = false;
+    }
+
+    /**
+     * reads more from the reader if it has to
+     * @return true if there is a character at index
+     */
+    boolean has(int index)
+    {
+        return index - m_base < m_limit || fill(index);
+    }
+
+    /**
+     * only call this after has(index) said yes
+     */
+    @Override
+    public char charAt(int index)
+    {
+        return m_chars[index - m_base];
+    }
+
+    /**
+     * lets the chars before index go, the lexer calls this
+     * at the start of every lexeme
+     */
+    void release(int index)
+    {
+        m_keep = index;
+    }
+
+    /**
+     * @return how much of the source we have seen so far
+     */
+    @Override
+    public int length()
+    {
+        return m_base + m_limit;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        return new String(m_chars, start - m_base, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(m_chars, 0, m_limit);
+    }
+
+    private boolean fill(int index)
+    {
+        try
+        {
+            while(!m_eof && index - m_base >= m_limit)
+            {
+                // slide what we still need to the front
+                int drop = m_keep - m_base;
+                if(drop > 0)
+                {
+                    System.arraycopy(m_chars, drop, m_chars, 0, m_limit - drop);
+                    m_base += drop;
+                    m_limit -= drop;
+                }
+                // one lexeme longer than the whole buffer, so make room
+                if(m_limit == m_chars.length)
+                {
+                    m_chars = Arrays.copyOf(m_chars, m_chars.length * 2);
+                }
+
+                int read = m_reader.read(m_chars, m_limit, m_chars.length - m_limit);
+                if(read == -1) m_eof = true;
+                else m_limit += read;
+            }
+        }
+        catch(IOException error)
+        {
+            throw new UncheckedIOException(error);
+        }
+
+        return index - m_base < m_limit;
+    }
+}
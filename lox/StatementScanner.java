@@ -0,0 +1,103 @@
+package lox;
+
+/**
+ * Finds where top level statements end without lexing or parsing: a ; or
+ * } outside any braces, parens, strings and comments, and not followed
+ * by an else. It walks the text the way the lexer would, just enough to
+ * know what is inside a string or a comment. Every such cut is at depth
+ * zero outside a string, so a scan can start again from any cut.
+ * Parens count as well as braces, the ; in for(...) is at brace depth zero.
+ */
+class StatementScanner
+{
+    private final CharSequence m_text;
+    // the line the scan is on, set it to the line of from before next(from)
+    int m_line = 1;
+
+    StatementScanner(CharSequence l_text)
+    {
+        this.m_text = l_text;
+    }
+
+    /**
+     * @param from 0 or a cut
+     * @return the offset right after the next cut, -1 if the text ends
+     * first, m_line is the line of the cut then
+     */
+    int next(int from)
+    {
+        CharSequence text = m_text;
+        int length = text.length();
+        int depth = 0;
+        int i = from;
+        while(i < length)
+        {
+            char c = text.charAt(i++);
+            switch(c)
+            {
+                case '\n' : m_line++; break;
+                case '(' :
+                case '{' : depth++; break;
+                case ')' :
+                case '}' :
+                    depth--;
+                    if(c == '}' && depth == 0 && canCut(i)) return i;
+                    break;
+                case ';' :
+                    if(depth == 0 && canCut(i)) return i;
+                    break;
+                case '"' :
+                    while(i < length && text.charAt(i) != '"')
+                    {
+                        if(text.charAt(i) == '\n') m_line++;
+                        i++;
+                    }
+                    i++; // the closing quote
+                    break;
+                case '/' :
+                    if(i < length && text.charAt(i) == '/')
+                    {
+                        while(i < length && text.charAt(i) != '\n') i++;
+                    }
+                    break;
+                default :
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return false if the statement goes on after offset, which in Lox
+     * only happens when an if's then branch is followed by else
+     */
+    private boolean canCut(int offset)
+    {
+        CharSequence text = m_text;
+        int length = text.length();
+        int i = offset;
+        while(i < length)
+        {
+            char c = text.charAt(i);
+            if(c == ' ' || c == '\t' || c == '\r' || c == '\n')
+            {
+                i++;
+            }
+            else if(c == '/' && i + 1 < length && text.charAt(i + 1) == '/')
+            {
+                while(i < length && text.charAt(i) != '\n') i++;
+            }
+            else
+            {
+                break;
+            }
+        }
+        if(i + 4 > length || text.charAt(i) != 'e' || text.charAt(i + 1) != 'l'
+            || text.charAt(i + 2) != 's' || text.charAt(i + 3) != 'e') return true;
+        return i + 4 < length && isIdentifierPart(text.charAt(i + 4));
+    }
+
+    private static boolean isIdentifierPart(char c)
+    {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || (c >= '0' && c <= '9');
+    }
+}
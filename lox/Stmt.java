@@ -22,6 +22,8 @@ abstract class Stmt{
     }
 
     final List<Stmt> statements;
+
+    int slots;
   }
  static class Expression extends Stmt{
     Expression(Expr expression) {
@@ -64,6 +66,10 @@ abstract class Stmt{
 
     final Expr condition;
     final  Stmt body;
+
+    int iterations;
+    CompiledLoop compiled;
+    CountedLoop counted;
   }
  static class Print extends Stmt{
     Print(Expr expression) {
@@ -78,8 +84,9 @@ abstract class Stmt{
     final Expr expression;
   }
  static class Var extends Stmt{
-    Var(Token name, Expr initializer) {
+    Var(String name, int offset, Expr initializer) {
     this.name = name;
+    this.offset = offset;
     this.initializer = initializer;
     }
 
@@ -88,9 +95,14 @@ abstract class Stmt{
     return visitor.visitVarStmt(this);
     }
 
-    final Token name;
+    final String name;
+    final  int offset;
     final  Expr initializer;
+
+    int slot = -1;
   }
 
+
+  int line;
   abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,106 @@
+package lox;
+
+import java.util.Arrays;
+
+/**
+ * Interns names (identifiers and string literal contents) to small int ids.
+ * Looking up a name that is already in the table works straight off the
+ * source characters, so seeing the same identifier again allocates nothing.
+ */
+class SymbolTable
+{
+    private String[] m_names = new String[64];
+    private int[] m_hashes = new int[64];
+    private int m_count = 0;
+    // open addressing, each entry is id + 1 so that 0 means empty
+    private int[] m_table = new int[128];
+
+    /**
+     * @param l_predefined names that get the ids 0, 1, 2... in order
+     */
+    SymbolTable(String... l_predefined)
+    {
+        for(String name : l_predefined)
+        {
+            intern(name, 0, name.length());
+        }
+    }
+
+    /**
+     * @return the id of the characters between start and end of source
+     */
+    int intern(CharSequence source, int start, int end)
+    {
+        int hash = hash(source, start, end);
+        int mask = m_table.length - 1;
+        int index = hash & mask;
+
+        while(m_table[index] != 0)
+        {
+            int id = m_table[index] - 1;
+            if(m_hashes[id] == hash && matches(m_names[id], source, start, end))
+            {
+                return id;
+            }
+            index = (index + 1) & mask;
+        }
+
+        // first time we see it, this is the only place we allocate
+        if(m_count == m_names.length)
+        {
+            m_names = Arrays.copyOf(m_names, m_count * 2);
+            m_hashes = Arrays.copyOf(m_hashes, m_count * 2);
+        }
+        int id = m_count++;
+        m_names[id] = source.subSequence(start, end).toString();
+        m_hashes[id] = hash;
+        m_table[index] = id + 1;
+
+        // keep the table at most half full
+        if(m_count * 2 > m_table.length) rehash();
+        return id;
+    }
+
+    String name(int id)
+    {
+        return m_names[id];
+    }
+
+    int size()
+    {
+        return m_count;
+    }
+
+    private void rehash()
+    {
+        m_table = new int[m_table.length * 2];
+        int mask = m_table.length - 1;
+        for(int id = 0; id < m_count; id++)
+        {
+            int index = m_hashes[id] & mask;
+            while(m_table[index] != 0) index = (index + 1) & mask;
+            m_table[index] = id + 1;
+        }
+    }
+
+    private static int hash(CharSequence source, int start, int end)
+    {
+        // same as String.hashCode, then spread so the low bits are usable
+        int hash = 0;
+        for(int i = start; i < end; i++)
+        {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end)
+    {
+        if(name.length() != end - start) return false;
+        for(int i = 0; i < name.length(); i++)
+        {
+            if(name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,242 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * All the tokens of a source kept as parallel int arrays instead of one
+ * Token object each. A Token is only made when someone asks for one,
+ * which the parser only does for errors, the tree keeps types, names
+ * and offsets.
+ *
+ * The arrays are used as a ring indexed by absolute token number. When
+ * the buffer streams from a Lexer, tokens are scanned only when asked
+ * for and the ones the parser has released get overwritten, so it
+ * never holds more than a few tokens at once.
+ */
+class TokenBuffer
+{
+    private static final TokenType[] TYPES = TokenType.values();
+    // lexeme for every token type whose text is always the same
+    private static final String[] FIXED_LEXEMES = new String[TYPES.length];
+    static
+    {
+        String[] punctuation = {
+            "(", ")", "{", "}", ",", ".", "-", "+", ";", "/", "*",
+            "!", "!=", "=", "==", ">", ">=", "<", "<="
+        };
+        for(int i = 0; i < punctuation.length; i++)
+        {
+            FIXED_LEXEMES[TokenType.LEFT_PAREN.ordinal() + i] = punctuation[i];
+        }
+        for(int i = TokenType.AND.ordinal(); i <= TokenType.WHILE.ordinal(); i++)
+        {
+            FIXED_LEXEMES[i] = TYPES[i].name().toLowerCase(Locale.ROOT);
+        }
+        FIXED_LEXEMES[TokenType.EOF.ordinal()] = "";
+    }
+
+    final SymbolTable m_symbols;
+    // the Lexer adds every line it passes, runtime errors need it long
+    // after the tokens are gone
+    final LineTable m_lineTable;
+
+    private int[] m_types;
+    private int[] m_starts;
+    private int[] m_lengths;
+    private int[] m_lines;
+    // symbol id for IDENTIFIER, STRING and NUMBER tokens, -1 for everything else
+    private int[] m_symbolIds;
+    private int m_mask;
+    private int m_count = 0;
+
+    // only set when streaming, tokens get scanned as they are asked for
+    private Lexer m_lexer;
+    // when streaming, tokens below this may be overwritten
+    private int m_released = 0;
+
+    TokenBuffer(SymbolTable l_symbols, LineTable l_lines, int l_capacity)
+    {
+        this.m_symbols = l_symbols;
+        this.m_lineTable = l_lines;
+
+        int capacity = Integer.highestOneBit(Math.max(16, l_capacity) - 1) << 1;
+        m_types = new int[capacity];
+        m_starts = new int[capacity];
+        m_lengths = new int[capacity];
+        m_lines = new int[capacity];
+        m_symbolIds = new int[capacity];
+        m_mask = capacity - 1;
+    }
+
+    /**
+     * from now on tokens are pulled from the lexer when they are needed
+     */
+    void streamFrom(Lexer l_lexer)
+    {
+        this.m_lexer = l_lexer;
+    }
+
+    /**
+     * the caller will not ask for any token below index again,
+     * only matters when streaming
+     */
+    void release(int index)
+    {
+        if(m_lexer != null && index > m_released) m_released = index;
+    }
+
+    void add(TokenType l_type, int l_start, int l_length, int l_line, int l_symbol)
+    {
+        if(m_count - m_released == m_types.length) grow();
+
+        int slot = m_count & m_mask;
+        m_types[slot] = l_type.ordinal();
+        m_starts[slot] = l_start;
+        m_lengths[slot] = l_length;
+        m_lines[slot] = l_line;
+        m_symbolIds[slot] = l_symbol;
+        m_count++;
+    }
+
+    /**
+     * @return how many tokens have been scanned so far
+     */
+    int size()
+    {
+        return m_count;
+    }
+
+    TokenType type(int index)
+    {
+        if(index >= m_count) pull(index);
+        return TYPES[m_types[index & m_mask]];
+    }
+
+    int line(int index)
+    {
+        if(index >= m_count) pull(index);
+        return m_lines[index & m_mask];
+    }
+
+    int start(int index)
+    {
+        if(index >= m_count) pull(index);
+        return m_starts[index & m_mask];
+    }
+
+    int length(int index)
+    {
+        if(index >= m_count) pull(index);
+        return m_lengths[index & m_mask];
+    }
+
+    int symbol(int index)
+    {
+        if(index >= m_count) pull(index);
+        return m_symbolIds[index & m_mask];
+    }
+
+    /**
+     * @return the value of a NUMBER or STRING token, null for anything else
+     */
+    Object literal(int index)
+    {
+        switch(type(index))
+        {
+            case TokenType.NUMBER :
+                return Double.parseDouble(m_symbols.name(symbol(index)));
+            case TokenType.STRING :
+                return m_symbols.name(symbol(index));
+            default :
+                return null;
+        }
+    }
+
+    /**
+     * worked out from the type and symbol, so we never need
+     * the source text again once a token is scanned
+     */
+    String lexeme(int index)
+    {
+        TokenType type = type(index);
+        switch(type)
+        {
+            case TokenType.IDENTIFIER :
+            case TokenType.NUMBER :
+                return m_symbols.name(symbol(index));
+            case TokenType.STRING :
+                return "\"" + m_symbols.name(symbol(index)) + "\"";
+            default :
+                return FIXED_LEXEMES[type.ordinal()];
+        }
+    }
+
+    /**
+     * @return the text of a token type that is always spelled the same,
+     * null for IDENTIFIER, STRING and NUMBER
+     */
+    static String lexeme(TokenType type)
+    {
+        return FIXED_LEXEMES[type.ordinal()];
+    }
+
+    /**
+     * makes a real Token for the one at index
+     */
+    Token token(int index)
+    {
+        return new Token(type(index), lexeme(index), literal(index), line(index));
+    }
+
+    List<Token> toList()
+    {
+        List<Token> tokens = new ArrayList<>(m_count);
+        for(int i = 0; i < m_count; i++)
+        {
+            tokens.add(token(i));
+        }
+        return tokens;
+    }
+
+    private void pull(int index)
+    {
+        while(index >= m_count && m_lexer != null && m_lexer.nextToken())
+        {
+        }
+
+        if(index >= m_count)
+        {
+            throw new IndexOutOfBoundsException("No token " + index);
+        }
+    }
+
+    private void grow()
+    {
+        int capacity = m_types.length * 2;
+        int[] types = new int[capacity];
+        int[] starts = new int[capacity];
+        int[] lengths = new int[capacity];
+        int[] lines = new int[capacity];
+        int[] symbols = new int[capacity];
+        int mask = capacity - 1;
+
+        // only the tokens that are still live need to move
+        for(int i = m_released; i < m_count; i++)
+        {
+            types[i & mask] = m_types[i & m_mask];
+            starts[i & mask] = m_starts[i & m_mask];
+            lengths[i & mask] = m_lengths[i & m_mask];
+            lines[i & mask] = m_lines[i & m_mask];
+            symbols[i & mask] = m_symbolIds[i & m_mask];
+        }
+
+        m_types = types;
+        m_starts = starts;
+        m_lengths = lengths;
+        m_lines = lines;
+        m_symbolIds = symbols;
+        m_mask = mask;
+    }
+}
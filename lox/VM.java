@@ -0,0 +1,250 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stack machine that runs a Chunk from the Compiler.
+ * Gives the same output and the same RuntimeErrors as the Interpreter,
+ * it is just a second way of running the same program.
+ */
+class VM
+{
+    // globals outlive a single chunk so the REPL keeps its variables
+    private final Map<String, Object> m_globals = new HashMap<>();
+    private Object[] m_stack = new Object[256];
+    private int m_sp = 0;
+    private final ErrorReporter m_errors;
+    private final PrintSink m_out;
+
+    VM(ErrorReporter l_errors, PrintSink l_out)
+    {
+        this.m_errors = l_errors;
+        this.m_out = l_out;
+    }
+
+    void interpret(Chunk chunk)
+    {
+        m_sp = 0;
+        try
+        {
+            run(chunk);
+        }
+        catch(RuntimeError error)
+        {
+            m_out.flush();
+            m_errors.runtimeError(error);
+        }
+        finally
+        {
+            m_out.flush();
+        }
+    }
+
+    private void run(Chunk chunk)
+    {
+        final byte[] code = chunk.m_code;
+        final Object[] constants = chunk.m_constants.toArray();
+        int ip = 0;
+
+        for(;;)
+        {
+            // opcode offset, only needed to find the source when something fails
+            int start = ip;
+            switch(code[ip++])
+            {
+                case OpCode.CONSTANT :
+                    push(constants[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.NIL   : push(null); break;
+                case OpCode.TRUE  : push(true); break;
+                case OpCode.FALSE : push(false); break;
+                case OpCode.POP   : m_sp--; break;
+                case OpCode.GET_LOCAL :
+                    push(m_stack[readShort(code, ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.SET_LOCAL :
+                    // assignment is an expression so the value stays on the stack
+                    m_stack[readShort(code, ip)] = m_stack[m_sp - 1];
+                    ip += 2;
+                    break;
+                case OpCode.GET_GLOBAL :
+                {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    Object value = m_globals.get(name);
+                    if(value == null && !m_globals.containsKey(name))
+                    {
+                        throw error(chunk, start, "Undefined varialble" + name + ".");
+                    }
+                    push(value);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL :
+                    m_globals.put((String)constants[readShort(code, ip)], m_stack[--m_sp]);
+                    ip += 2;
+                    break;
+                case OpCode.SET_GLOBAL :
+                {
+                    String name = (String)constants[readShort(code, ip)];
+                    ip += 2;
+                    if(!m_globals.containsKey(name))
+                    {
+                        throw error(chunk, start, "Undefined variable " + name + ".");
+                    }
+                    m_globals.put(name, m_stack[m_sp - 1]);
+                    break;
+                }
+                case OpCode.EQUAL :
+                {
+                    Object right = m_stack[--m_sp];
+                    m_stack[m_sp - 1] = Interpreter.isEqual(m_stack[m_sp - 1], right);
+                    break;
+                }
+                case OpCode.NOT_EQUAL :
+                {
+                    Object right = m_stack[--m_sp];
+                    m_stack[m_sp - 1] = !Interpreter.isEqual(m_stack[m_sp - 1], right);
+                    break;
+                }
+                case OpCode.GREATER :
+                    checkNumberOperands(chunk, start);
+                    m_stack[m_sp - 2] = (double)m_stack[m_sp - 2] > (double)m_stack[m_sp - 1];
+                    m_sp--;
+                    break;
+                case OpCode.GREATER_EQUAL :
+                    checkNumberOperands(chunk, start);
+                    m_stack[m_sp - 2] = (double)m_stack[m_sp - 2] >= (double)m_stack[m_sp - 1];
+                    m_sp--;
+                    break;
+                case OpCode.LESS :
+                    checkNumberOperands(chunk, start);
+                    m_stack[m_sp - 2] = (double)m_stack[m_sp - 2] < (double)m_stack[m_sp - 1];
+                    m_sp--;
+                    break;
+                case OpCode.LESS_EQUAL :
+                    checkNumberOperands(chunk, start);
+                    m_stack[m_sp - 2] = (double)m_stack[m_sp - 2] <= (double)m_stack[m_sp - 1];
+                    m_sp--;
+                    break;
+                case OpCode.ADD :
+                {
+                    Object right = m_stack[--m_sp];
+                    Object left = m_stack[m_sp - 1];
+                    if(left instanceof Double && right instanceof Double)
+                    {
+                        m_stack[m_sp - 1] = (double)left + (double)right;
+                    }
+                    else if(Rope.isString(left) && Rope.isString(right))
+                    {
+                        m_stack[m_sp - 1] = Rope.concat(left, right, chunk.sourceAt(start));
+                    }
+                    else
+                    {
+                        throw error(chunk, start, "Operands must be numbers or two strings");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT :
+                    checkNumberOperands(chunk, start);
+                    m_stack[m_sp - 2] = (double)m_stack[m_sp - 2] - (double)m_stack[m_sp - 1];
+                    m_sp--;
+                    break;
+                case OpCode.MULTIPLY :
+                    checkNumberOperands(chunk, start);
+                    m_stack[m_sp - 2] = (double)m_stack[m_sp - 2] * (double)m_stack[m_sp - 1];
+                    m_sp--;
+                    break;
+                case OpCode.DIVIDE :
+                    checkNumberOperands(chunk, start);
+                    if((double)m_stack[m_sp - 1] == 0)
+                    {
+                        throw error(chunk, start, "Division by Zero");
+                    }
+                    m_stack[m_sp - 2] = (double)m_stack[m_sp - 2] / (double)m_stack[m_sp - 1];
+                    m_sp--;
+                    break;
+                case OpCode.NOT :
+                    m_stack[m_sp - 1] = !Interpreter.isTruthy(m_stack[m_sp - 1]);
+                    break;
+                case OpCode.NEGATE :
+                    if(!(m_stack[m_sp - 1] instanceof Double))
+                    {
+                        throw error(chunk, start, "Operand must be a number.");
+                    }
+                    m_stack[m_sp - 1] = -(double)m_stack[m_sp - 1];
+                    break;
+                case OpCode.PRINT :
+                    m_out.println(m_stack[--m_sp]);
+                    break;
+                case OpCode.JUMP :
+                    ip += 2 + readShort(code, ip);
+                    break;
+                case OpCode.JUMP_IF_FALSE :
+                    if(!Interpreter.isTruthy(m_stack[m_sp - 1]))
+                    {
+                        ip += 2 + readShort(code, ip);
+                    }
+                    else
+                    {
+                        ip += 2;
+                    }
+                    break;
+                case OpCode.LOOP :
+                    ip = ip + 2 - readShort(code, ip);
+                    break;
+                case OpCode.RESERVE :
+                {
+                    int count = readShort(code, ip);
+                    ip += 2;
+                    ensureCapacity(count);
+                    Arrays.fill(m_stack, m_sp, m_sp + count, null);
+                    m_sp += count;
+                    break;
+                }
+                case OpCode.POPN :
+                    m_sp -= readShort(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.RETURN :
+                    return;
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[start]);
+            }
+        }
+    }
+
+    private static int readShort(byte[] code, int ip)
+    {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private void push(Object value)
+    {
+        if(m_sp == m_stack.length) ensureCapacity(1);
+        m_stack[m_sp++] = value;
+    }
+
+    private void ensureCapacity(int extra)
+    {
+        if(m_sp + extra > m_stack.length)
+        {
+            m_stack = Arrays.copyOf(m_stack, Math.max(m_stack.length * 2, m_sp + extra));
+        }
+    }
+
+    private void checkNumberOperands(Chunk chunk, int offset)
+    {
+        if(m_stack[m_sp - 2] instanceof Double && m_stack[m_sp - 1] instanceof Double) return;
+
+        throw error(chunk, offset, "Operands must be numbers");
+    }
+
+    private RuntimeError error(Chunk chunk, int offset, String message)
+    {
+        return new RuntimeError(chunk.sourceAt(offset), message);
+    }
+}
@@ -0,0 +1,109 @@
+package lox;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Every name some statements read, assign or declare. It goes by name,
+ * not by what the resolver made of it, so a var shadowing a name only
+ * ever makes whoever asks more careful. There are no functions in Lox,
+ * so what a piece of code can change is all written down right in it.
+ */
+class VariableUses implements Expr.Visitor<Void>, Stmt.Visitor<Void>
+{
+    final Set<String> m_assigned = new HashSet<>();
+    final Set<String> m_read = new HashSet<>();
+    final Set<String> m_declared = new HashSet<>();
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt)
+    {
+        for(Stmt statement : stmt.statements)
+        {
+            statement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt)
+    {
+        return stmt.expression.accept(this);
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt)
+    {
+        stmt.condition.accept(this);
+        stmt.thenBranch.accept(this);
+        if(stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt)
+    {
+        stmt.condition.accept(this);
+        return stmt.body.accept(this);
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt)
+    {
+        return stmt.expression.accept(this);
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt)
+    {
+        m_declared.add(stmt.name);
+        if(stmt.initializer != null) stmt.initializer.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr)
+    {
+        m_assigned.add(expr.name);
+        return expr.value.accept(this);
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr)
+    {
+        expr.left.accept(this);
+        return expr.right.accept(this);
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr)
+    {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr)
+    {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr)
+    {
+        expr.left.accept(this);
+        return expr.right.accept(this);
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr)
+    {
+        return expr.right.accept(this);
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr)
+    {
+        m_read.add(expr.name);
+        return null;
+    }
+}
@@ -20,28 +20,35 @@ public class GenerateAST
         }
 
         String outputDir = args[0];
+        // no Tokens in the tree, a node keeps the operator, the name as the
+        // symbol table interned it and the offset of the token in the
+        // source, LineTable turns that into a line for error messages
         defineAST(outputDir, "Expr", Arrays.asList(
-            "Assign : Token name, Expr value",
-            "Binary      : Expr left, Token operator, Expr right",
+            "Assign : String name, int offset, Expr value ; int depth = -1, int slot, Environment.Cell cell",
+            "Binary      : Expr left, TokenType operator, int offset, Expr right ; int state",
             "Grouping    : Expr expression",
             "Literal     : Object value",
-            "Logical     : Expr left,Token operator, Expr right",
-            "Unary       : Token operator, Expr right",
-            "Variable    : Token name "
-        )); 
+            "Logical     : Expr left, TokenType operator, Expr right",
+            "Unary       : TokenType operator, int offset, Expr right ; int state",
+            "Variable    : String name, int offset ; int depth = -1, int slot, Environment.Cell cell"
+        ), null); 
 
         defineAST(outputDir, "Stmt", Arrays.asList(
-            "Block : List<Stmt> statements",
+            "Block : List<Stmt> statements ; int slots",
             "Expression : Expr expression",
             "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
-            "While      : Expr condition, Stmt body",
+            "While      : Expr condition, Stmt body ; int iterations, CompiledLoop compiled, CountedLoop counted",
             "Print      : Expr expression",
-            "Var        : Token name, Expr initializer"
-        ));
+            "Var        : String name, int offset, Expr initializer ; int slot = -1"
+        ), "int line");
     }
     
+    /**
+     * @param baseFields mutable fields every type gets from the base
+     * class, null for none
+     */
     private static void defineAST(
-        String outputDir, String baseName, List<String> types)
+        String outputDir, String baseName, List<String> types, String baseFields)
         throws IOException
     {
         String path = outputDir + "/" + baseName +".java";
@@ -58,17 +65,30 @@ public class GenerateAST
         for(String type : types)
         {
             String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer,baseName,className,fields);
+            // anything after ';' is not passed to the constructor
+            // these are the mutable fields the resolver fills in later
+            String[] parts = type.split(":")[1].split(";");
+            String fields = parts[0].trim();
+            String extraFields = parts.length > 1 ? parts[1].trim() : null;
+            defineType(writer,baseName,className,fields,extraFields);
         }
         writer.println();
+        if(baseFields != null)
+        {
+            writer.println();
+            for(String field : baseFields.split(","))
+            {
+                writer.println("  " + field.trim() + ";");
+            }
+        }
         writer.println("  abstract <R> R accept(Visitor<R> visitor);");
         writer.println("}");
         writer.close();
     }
 
     private static void defineType(
-        PrintWriter writer, String baseName, String className, String fieldList)
+        PrintWriter writer, String baseName, String className, String fieldList,
+        String extraFieldList)
     {
         writer.println(" static class " + className + " extends " + baseName + "{");
 
@@ -102,6 +122,15 @@ public class GenerateAST
             writer.println("    final " + field + ";");
         }
 
+        if(extraFieldList != null)
+        {
+            writer.println();
+            for(String field : extraFieldList.split(","))
+            {
+                writer.println("    " + field.trim() + ";");
+            }
+        }
+
         writer.println("  }");
     }
 